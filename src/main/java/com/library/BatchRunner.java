@@ -0,0 +1,302 @@
+package com.library;
+
+import com.library.model.Book;
+import com.library.model.Genre;
+import com.library.model.Member;
+import com.library.service.BookImportService;
+import com.library.service.ExportFormat;
+import com.library.service.FineService;
+import com.library.service.LibraryService;
+import com.library.service.QueryScheduler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs library commands from a script without the menus, one command per line:
+ * <pre>
+ *   add-book "Dune" "Frank Herbert" 9780441013593 1965 FICTION
+ *   add-member M1 "Ann Lee"
+ *   borrow M1 9780441013593
+ *   return M1 9780441013593
+ *   export books data/books.jsonl JSON_LINES
+ * </pre>
+ * Arguments are separated by spaces; double quotes group an argument and {@code ""} inside quotes is a
+ * literal quote. Blank lines and lines starting with {@code #} are skipped. A reader thread parses
+ * lines into a bounded queue while the calling thread executes them, and results go to a buffered
+ * writer. Exports run on the scheduler's bulk lane, so a script cannot starve interactive clients
+ * sharing the library. Circulation, lookups and searches run on its interactive lane, so bulk work
+ * backs off for them as it does for the menus. At the end a table of per-command counts and timings is printed.
+ */
+public class BatchRunner {
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final Command END = new Command(-1, null, null);
+    // Whole-catalog work that is not a client request; everything else goes through the interactive lane
+    private static final Set<String> NOT_INTERACTIVE = Set.of("import", "export", "save");
+
+    private final LibraryService library;
+    private final QueryScheduler scheduler;
+    private final Callable<String> save;
+    private final Map<String, Timing> timings = new TreeMap<>();
+
+    // save writes the pending changes and describes what it wrote; it must leave the library usable
+    public BatchRunner(LibraryService library, QueryScheduler scheduler, Callable<String> save) {
+        this.library = library;
+        this.scheduler = scheduler;
+        this.save = save;
+    }
+
+    // Returns the number of commands that failed
+    public long run(InputStream script, PrintStream output) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16));
+        BlockingQueue<Command> commands = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        IOException[] readFailure = new IOException[1];
+        Thread reader = new Thread(() -> {
+            try {
+                read(script, commands);
+            } catch (IOException e) {
+                readFailure[0] = e;
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                commands.put(END);
+            } catch (InterruptedException ignored) {
+                // The runner has given up
+            }
+        }, "batch-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        long errors = 0;
+        long start = System.nanoTime();
+        try {
+            for (Command command = commands.take(); command != END; command = commands.take()) {
+                long begin = System.nanoTime();
+                boolean failed = false;
+                try {
+                    if (NOT_INTERACTIVE.contains(command.name)) {
+                        execute(command, out);
+                    } else {
+                        Command interactive = command;
+                        scheduler.interactive(() -> {
+                            execute(interactive, out);
+                            return null;
+                        });
+                    }
+                } catch (Exception e) {
+                    failed = true;
+                    errors++;
+                    out.println("line " + command.lineNumber + ": " + command.name + " failed: " + e.getMessage());
+                }
+                timings.computeIfAbsent(command.name, k -> new Timing()).record(System.nanoTime() - begin, failed);
+            }
+        } catch (InterruptedException e) {
+            reader.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch interrupted");
+        } finally {
+            printSummary(out, System.nanoTime() - start);
+            out.flush();
+        }
+        if (readFailure[0] != null) {
+            throw readFailure[0];
+        }
+        return errors;
+    }
+
+    private static void read(InputStream script, BlockingQueue<Command> commands) throws IOException, InterruptedException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(script, StandardCharsets.UTF_8), 1 << 16);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+            List<String> tokens = tokenize(trimmed);
+            commands.put(new Command(lineNumber, tokens.get(0).toLowerCase(Locale.ROOT), tokens.subList(1, tokens.size())));
+        }
+    }
+
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inQuotes = false;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (inQuotes && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else {
+                    inQuotes = !inQuotes;
+                    quoted = true;
+                }
+            } else if (Character.isWhitespace(c) && !inQuotes) {
+                if (current.length() > 0 || quoted) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                    quoted = false;
+                }
+            } else {
+                current.append(c);
+            }
+        }
+        if (current.length() > 0 || quoted) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+
+    private void execute(Command command, PrintWriter out) throws Exception {
+        List<String> args = command.args;
+        switch (command.name) {
+            case "add-book" -> {
+                expect(command, 5, "add-book <title> <author> <isbn> <year> <genre>");
+                library.addBook(new Book(args.get(0), args.get(1), args.get(2), Integer.parseInt(args.get(3)),
+                        Genre.valueOf(args.get(4).toUpperCase(Locale.ROOT))));
+            }
+            case "remove-book" -> {
+                expect(command, 1, "remove-book <isbn>");
+                library.removeBook(args.get(0));
+            }
+            case "add-member" -> {
+                expect(command, 2, "add-member <id> <name>");
+                library.addMember(new Member(args.get(0), args.get(1)));
+            }
+            case "borrow" -> {
+                expect(command, 2, "borrow <member id> <isbn>");
+                library.borrowBook(args.get(0), args.get(1));
+            }
+            case "return" -> {
+                expect(command, 2, "return <member id> <isbn>");
+                library.returnBook(args.get(0), args.get(1));
+            }
+            case "search-author" -> {
+                expect(command, 1, "search-author <author>");
+                printBooks(out, command, library.searchByAuthor(args.get(0)));
+            }
+            case "search-genre" -> {
+                expect(command, 1, "search-genre <genre>");
+                printBooks(out, command, library.searchByGenre(Genre.valueOf(args.get(0).toUpperCase(Locale.ROOT))));
+            }
+            case "fuzzy-search" -> {
+                expect(command, 1, "fuzzy-search <text>");
+                printBooks(out, command, library.fuzzySearch(args.get(0), 10));
+            }
+            case "search-member" -> {
+                expect(command, 1, "search-member <id or name prefix>");
+                List<Member> members = library.searchMembers(args.get(0), 10);
+                out.println("line " + command.lineNumber + ": " + members.size() + " members");
+                for (Member member : members) {
+                    out.println("  " + member.getMemberId() + "  " + member.getName());
+                }
+            }
+            case "available" -> {
+                expect(command, 0, "available");
+                out.println("line " + command.lineNumber + ": " + library.getAvailableBooks().size() + " books available");
+            }
+            case "recommend" -> {
+                expect(command, 1, "recommend <isbn or member id>");
+                String id = args.get(0);
+                printBooks(out, command, library.getBook(id) != null
+                        ? library.recommendForBook(id, 10) : library.recommendForMember(id, 10));
+            }
+            case "fine" -> {
+                expect(command, 1, "fine <member id>");
+                out.println("line " + command.lineNumber + ": " + args.get(0) + " owes "
+                        + FineService.formatCents(library.getFines().getBalance(args.get(0))));
+            }
+            case "import" -> {
+                if (args.isEmpty() || args.size() > 2 || (args.size() == 2 && !args.get(1).equals("--dry-run"))) {
+                    throw new IllegalArgumentException("usage: import <csv file> [--dry-run]");
+                }
+                String rejects = args.get(0) + ".rejects.csv";
+                out.println(new BookImportService(library).importBooks(args.get(0), rejects, args.size() == 2));
+            }
+            case "export" -> {
+                if (args.size() < 2 || args.size() > 3 || !(args.get(0).equals("books") || args.get(0).equals("members"))) {
+                    throw new IllegalArgumentException("usage: export <books|members> <file> [CSV|BINARY|JSON_LINES]");
+                }
+                ExportFormat format = args.size() == 3 ? ExportFormat.valueOf(args.get(2).toUpperCase(Locale.ROOT)) : ExportFormat.CSV;
+                long count;
+                try {
+                    count = (args.get(0).equals("books") ? scheduler.exportBooks(args.get(1), format)
+                            : scheduler.exportMembers(args.get(1), format)).get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception cause ? cause : e;
+                }
+                out.println("line " + command.lineNumber + ": exported " + count + " " + args.get(0) + " to " + args.get(1));
+            }
+            case "save" -> {
+                expect(command, 0, "save");
+                out.println("line " + command.lineNumber + ": " + save.call());
+            }
+            default -> throw new IllegalArgumentException("unknown command");
+        }
+    }
+
+    private static void expect(Command command, int count, String usage) {
+        if (command.args.size() != count) {
+            throw new IllegalArgumentException("usage: " + usage);
+        }
+    }
+
+    private static void printBooks(PrintWriter out, Command command, List<Book> books) {
+        out.println("line " + command.lineNumber + ": " + books.size() + " books");
+        for (Book book : books) {
+            out.println("  " + book.getIsbn() + "  " + book.getTitle() + " by " + book.getAuthor());
+        }
+    }
+
+    private void printSummary(PrintWriter out, long elapsedNanos) {
+        long total = 0;
+        long errors = 0;
+        out.println();
+        out.println(String.format("%-14s %10s %8s %12s %12s %12s", "Command", "Count", "Errors", "Total ms", "Mean us", "Max us"));
+        for (Map.Entry<String, Timing> entry : timings.entrySet()) {
+            Timing timing = entry.getValue();
+            total += timing.count;
+            errors += timing.errors;
+            out.println(String.format("%-14s %,10d %,8d %,12.1f %,12.1f %,12.1f", entry.getKey(), timing.count,
+                    timing.errors, timing.totalNanos / 1e6, timing.totalNanos / 1e3 / timing.count, timing.maxNanos / 1e3));
+        }
+        double seconds = elapsedNanos / 1e9;
+        out.println(String.format("%,d commands (%,d failed) in %,.1f ms, %,.0f commands/s", total, errors,
+                elapsedNanos / 1e6, seconds > 0 ? total / seconds : 0));
+    }
+
+    private static class Command {
+        final int lineNumber;
+        final String name;
+        final List<String> args;
+
+        Command(int lineNumber, String name, List<String> args) {
+            this.lineNumber = lineNumber;
+            this.name = name;
+            this.args = args;
+        }
+    }
+
+    private static class Timing {
+        long count;
+        long errors;
+        long totalNanos;
+        long maxNanos;
+
+        void record(long nanos, boolean failed) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            if (failed) {
+                errors++;
+            }
+        }
+    }
+}
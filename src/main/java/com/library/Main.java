@@ -4,19 +4,64 @@ import com.library.exception.*;
 import com.library.model.*;
 import com.library.service.*;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
     private static final Scanner sc = new Scanner(System.in);
     private static final LibraryService library = new LibraryService();
     private static final FileService fileService = new FileService();
-    private static final String BOOKS_FILE = "data/books.csv";
-    private static final String MEMBERS_FILE = "data/members.csv";
+    // Reports go through the scheduler's bulk lane so they cannot starve borrowing and returning
+    private static final QueryScheduler scheduler = new QueryScheduler(library);
+    private static final ReportService reports = scheduler.getReports();
+    private static final String BOOKS_SNAPSHOT = "data/books";
+    private static final String MEMBERS_SNAPSHOT = "data/members";
+    private static final String PLAIN_EXTENSION = ".csv";
+    private static final String FINES_FILE = "data/fines.csv";
+    private static final String DELTA_FILE = "data/changes.delta";
+    private static final String LOAD_REJECTS_FILE = "data/books.rejects.csv";
+    private static final String EVENTS_DIR = "data/events";
+    private static final int MEMBER_PAGE_SIZE = 20;
+    private static AutosaveService autosave;
+    private static EventStore events;
+    private static LibraryRepository repository;
+    private static String booksFile = BOOKS_SNAPSHOT + PLAIN_EXTENSION;
+    private static String membersFile = MEMBERS_SNAPSHOT + PLAIN_EXTENSION;
+    private static CompletableFuture<Void> booksReady;
+    private static CompletableFuture<Void> membersReady;
 
     public static void main(String[] args) {
-        // Load existing data
-        loadData();
+        // Load existing data; with --fast-start the menu comes up first and data loads behind it.
+        // With --replay-events the state is rebuilt from the event log instead of the CSV files.
+        List<String> options = Arrays.asList(args);
+        // --compressed keeps the book and member snapshots block-compressed (.csvz)
+        if (options.contains("--compressed")) {
+            booksFile = BOOKS_SNAPSHOT + FileService.COMPRESSED_EXTENSION;
+            membersFile = MEMBERS_SNAPSHOT + FileService.COMPRESSED_EXTENSION;
+        }
+        configureAutosave(args);
+        startLoading(options.contains("--fast-start"), options.contains("--replay-events"));
+        for (String arg : args) {
+            if (arg.equals("--batch") || arg.startsWith("--batch=")) {
+                System.exit(runBatch(arg.equals("--batch") ? null : arg.substring("--batch=".length())));
+            }
+        }
         
         while (true) {
             System.out.println("\n--- Library Management System ---");
@@ -36,8 +81,11 @@ public class Main {
                     case 3 -> borrowReturnManagement();
                     case 4 -> viewReports();
                     case 5 -> {
+                        awaitAll();
                         saveData();
+                        closeRepository();
                         System.out.println("Data saved. Exiting...");
+                        scheduler.shutdown();
                         return;
                     }
                     default -> System.out.println("Invalid choice. Please try again.");
@@ -58,18 +106,23 @@ public class Main {
             System.out.println("3. Search by Author");
             System.out.println("4. Search by Genre");
             System.out.println("5. View All Books");
-            System.out.println("6. Back to Main Menu");
+            System.out.println("6. Import Books from CSV");
+            System.out.println("7. Back to Main Menu");
             System.out.print("Enter choice: ");
             
             int choice = Integer.parseInt(sc.nextLine());
+            // Edits also wait for the event log, which is attached once members have loaded, so none goes unrecorded
+            if (choice == 1 || choice == 2 || choice == 6) awaitAll();
+            else if (choice != 7) awaitBooks();
             
             switch (choice) {
                 case 1 -> addBook();
                 case 2 -> removeBook();
                 case 3 -> searchByAuthor();
                 case 4 -> searchByGenre();
-                case 5 -> printBooks(library.getAllBooks());
-                case 6 -> { return; }
+                case 5 -> printBooks(scheduler.lookup(library::getAllBooks));
+                case 6 -> importBooks();
+                case 7 -> { return; }
                 default -> System.out.println("Invalid choice.");
             }
         }
@@ -80,16 +133,19 @@ public class Main {
             System.out.println("\n--- Member Management ---");
             System.out.println("1. Add Member");
             System.out.println("2. View All Members");
-            System.out.println("3. Back to Main Menu");
+            System.out.println("3. Search Members");
+            System.out.println("4. Back to Main Menu");
             System.out.print("Enter choice: ");
             
             int choice = Integer.parseInt(sc.nextLine());
+            if (choice != 4) awaitMembers();
             
             try {
                 switch (choice) {
                     case 1 -> addMember();
                     case 2 -> viewAllMembers();
-                    case 3 -> { return; }
+                    case 3 -> searchMembers();
+                    case 4 -> { return; }
                     default -> System.out.println("Invalid choice.");
                 }
             } catch (Exception e) {
@@ -108,12 +164,13 @@ public class Main {
             System.out.print("Enter choice: ");
             
             int choice = Integer.parseInt(sc.nextLine());
+            if (choice != 4) awaitAll();
             
             try {
                 switch (choice) {
                     case 1 -> borrowBook();
                     case 2 -> returnBook();
-                    case 3 -> printBooks(library.getAvailableBooks());
+                    case 3 -> printBooks(scheduler.lookup(library::getAvailableBooks));
                     case 4 -> { return; }
                     default -> System.out.println("Invalid choice.");
                 }
@@ -128,21 +185,30 @@ public class Main {
         System.out.println("1. Books by Genre");
         System.out.println("2. Oldest/Newest Books");
         System.out.println("3. Overdue Books");
-        System.out.println("4. Back to Main Menu");
+        System.out.println("4. Books by Decade and Genre");
+        System.out.println("5. Top Authors");
+        System.out.println("6. Loans by Genre");
+        System.out.println("7. Circulation Statistics");
+        System.out.println("8. Member Fines");
+        System.out.println("9. Loan History");
+        System.out.println("10. Recommendations");
+        System.out.println("11. Export Books or Members");
+        System.out.println("12. Back to Main Menu");
         System.out.print("Enter choice: ");
         
         int choice = Integer.parseInt(sc.nextLine());
+        if (choice != 12) awaitAll();
         
         try {
             switch (choice) {
                 case 1 -> {
                     System.out.println("\nBooks by Genre:");
-                    library.countBooksByGenre().forEach((g, c) -> 
+                    report(reports::countBooksByGenre).forEach((g, c) -> 
                         System.out.println(g + ": " + c + " books"));
                 }
                 case 2 -> {
-                    Book oldest = library.getOldestBook();
-                    Book newest = library.getNewestBook();
+                    Book oldest = report(reports::getOldestBook);
+                    Book newest = report(reports::getNewestBook);
                     System.out.println("\nOldest Book: " + 
                         (oldest != null ? oldest : "No books in library"));
                     System.out.println("Newest Book: " + 
@@ -152,7 +218,27 @@ public class Main {
                     System.out.println("\nOverdue Books:");
                     viewOverdueBooks();
                 }
-                case 4 -> { return; }
+                case 4 -> {
+                    System.out.println("\nBooks by Decade and Genre:");
+                    report(reports::countBooksByDecadeAndGenre).forEach((decade, counts) ->
+                        System.out.println(decade + "s: " + counts));
+                }
+                case 5 -> {
+                    System.out.println("\nTop Authors:");
+                    report(() -> reports.getTopAuthors(10)).forEach(e ->
+                        System.out.println(e.getKey() + ": " + e.getValue() + " books"));
+                }
+                case 6 -> {
+                    System.out.println("\nLoans by Genre:");
+                    report(reports::countLoansByGenre).forEach((g, c) ->
+                        System.out.println(g + ": " + c + " loans"));
+                }
+                case 7 -> viewCirculationStatistics();
+                case 8 -> viewFines();
+                case 9 -> viewLoanHistory();
+                case 10 -> viewRecommendations();
+                case 11 -> exportData();
+                case 12 -> { return; }
                 default -> System.out.println("Invalid choice.");
             }
         } catch (Exception e) {
@@ -175,27 +261,55 @@ public class Main {
         System.out.println("Member added successfully!");
     }
 
+    // Pages through the members in ID order without copying the whole list
     private static void viewAllMembers() {
-        List<Member> members = library.getAllMembers();
-        if (members.isEmpty()) {
+        List<Member> page = scheduler.lookup(() -> library.getMembersPage(null, MEMBER_PAGE_SIZE));
+        if (page.isEmpty()) {
             System.out.println("No members found.");
             return;
         }
         
-        System.out.println("\n--- All Members ---");
-        for (Member member : members) {
-            System.out.println("ID: " + member.getMemberId() + 
-                           ", Name: " + member.getName() +
-                           ", Books Borrowed: " + member.getBorrowedBooks().size());
+        System.out.println("\n--- All Members (" + library.getMemberCount() + ") ---");
+        while (true) {
+            page.forEach(Main::printMember);
+            if (page.size() < MEMBER_PAGE_SIZE) {
+                return;
+            }
+            System.out.print("Enter for more, q to stop: ");
+            if (sc.nextLine().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+            String lastMemberId = page.get(page.size() - 1).getMemberId();
+            page = scheduler.lookup(() -> library.getMembersPage(lastMemberId, MEMBER_PAGE_SIZE));
+            if (page.isEmpty()) {
+                return;
+            }
         }
     }
 
+    private static void searchMembers() {
+        System.out.print("Enter the start of a member ID or name: ");
+        String prefix = sc.nextLine();
+        List<Member> matches = scheduler.lookup(() -> library.searchMembers(prefix, 10));
+        if (matches.isEmpty()) {
+            System.out.println("No matching members.");
+            return;
+        }
+        matches.forEach(Main::printMember);
+    }
+
+    private static void printMember(Member member) {
+        System.out.println("ID: " + member.getMemberId() + 
+                       ", Name: " + member.getName() +
+                       ", Books Borrowed: " + member.getBorrowedBooks().size());
+    }
+
     private static void borrowBook() throws Exception {
         System.out.print("Enter Member ID: ");
         String memberId = sc.nextLine();
         
         System.out.println("\nAvailable Books:");
-        List<Book> availableBooks = library.getAvailableBooks();
+        List<Book> availableBooks = scheduler.lookup(library::getAvailableBooks);
         if (availableBooks.isEmpty()) {
             System.out.println("No books available for borrowing.");
             return;
@@ -207,10 +321,11 @@ public class Main {
         String isbn = sc.nextLine();
         
         try {
-            library.borrowBook(memberId, isbn);
+            LocalDate dueDate = scheduler.interactive(() -> {
+                library.borrowBook(memberId, isbn);
+                return library.getMember(memberId).getBorrowedBooks().get(isbn);
+            });
             System.out.println("Book borrowed successfully!");
-            Member member = library.getMember(memberId);
-            LocalDate dueDate = member.getBorrowedBooks().get(isbn);
             System.out.println("Due date: " + dueDate);
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
@@ -221,7 +336,7 @@ public class Main {
         System.out.print("Enter Member ID: ");
         String memberId = sc.nextLine();
         
-        Member member = library.getMember(memberId);
+        Member member = scheduler.interactive(() -> library.getMember(memberId));
         if (member.getBorrowedBooks().isEmpty()) {
             System.out.println("This member has no borrowed books.");
             return;
@@ -237,28 +352,139 @@ public class Main {
         String isbn = sc.nextLine();
         
         try {
-            library.returnBook(memberId, isbn);
+            scheduler.interactive(() -> {
+                library.returnBook(memberId, isbn);
+                return null;
+            });
             System.out.println("Book returned successfully!");
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
         }
     }
 
-    private static void viewOverdueBooks() {
-        boolean found = false;
-        for (Member member : library.getAllMembers()) {
-            List<String> overdue = member.getOverdueBooks();
-            if (!overdue.isEmpty()) {
-                found = true;
-                System.out.println("\nMember: " + member.getName() + " (ID: " + member.getMemberId() + ")");
-                overdue.forEach(System.out::println);
-            }
+    private static void viewOverdueBooks() throws Exception {
+        List<Member> members = report(reports::getMembersWithOverdueBooks);
+        for (Member member : members) {
+            System.out.println("\nMember: " + member.getName() + " (ID: " + member.getMemberId() + ")");
+            member.getOverdueBooks().forEach(System.out::println);
         }
-        if (!found) {
+        if (members.isEmpty()) {
             System.out.println("No overdue books found.");
         }
     }
 
+    // Exports stream the live catalog on the bulk lane, throttled like the reports
+    private static void exportData() throws Exception {
+        System.out.print("Export books or members? ");
+        String kind = sc.nextLine().trim().toLowerCase(Locale.ROOT);
+        if (!kind.equals("books") && !kind.equals("members")) {
+            System.out.println("Invalid choice.");
+            return;
+        }
+        System.out.print("Enter file name: ");
+        String filename = sc.nextLine().trim();
+        System.out.print("Format (CSV, BINARY, JSON_LINES): ");
+        String input = sc.nextLine().trim();
+        ExportFormat format = input.isEmpty() ? ExportFormat.CSV : ExportFormat.valueOf(input.toUpperCase(Locale.ROOT));
+        long count = await(kind.equals("books") ? scheduler.exportBooks(filename, format)
+                : scheduler.exportMembers(filename, format));
+        System.out.println("Exported " + count + " " + kind + " to " + filename);
+    }
+
+    // Runs a report on the bulk lane and waits for it
+    private static <T> T report(Callable<T> query) throws Exception {
+        return await(scheduler.bulk(query));
+    }
+
+    private static <T> T await(CompletableFuture<T> result) throws Exception {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private static void viewCirculationStatistics() {
+        CirculationStatistics stats = library.getStatistics();
+        System.out.println("\nCirculation (last 30 days): " + stats.getWindowBorrows() + " borrows, " +
+                           stats.getWindowReturns() + " returns");
+        Genre busiest = stats.getBusiestGenre();
+        System.out.println("Busiest Genre: " + (busiest != null ? busiest : "No loans yet"));
+        System.out.println("Most Borrowed Books:");
+        stats.getTopBooks(10).forEach(e -> {
+            Book book = scheduler.lookup(() -> library.getBook(e.getKey()));
+            System.out.println((book != null ? book.getTitle() : "ISBN " + e.getKey()) +
+                               ": " + e.getValue() + " loans");
+        });
+        System.out.println("Search Cache: " + library.getQueryCache());
+    }
+
+    private static void accrueFines() {
+        FineService fines = library.getFines();
+        LocalDate today = LocalDate.now();
+        if (fines.getLastAccrual() == null || today.isAfter(fines.getLastAccrual())) {
+            System.out.println(fines.accrueFines(today));
+        }
+    }
+
+    private static void viewFines() {
+        Map<String, Long> balances = library.getFines().getBalances();
+        if (balances.isEmpty()) {
+            System.out.println("No outstanding fines.");
+            return;
+        }
+        System.out.println("\nOutstanding Fines:");
+        balances.forEach((memberId, cents) ->
+            System.out.println("Member ID: " + memberId + ", Balance: " + FineService.formatCents(cents)));
+    }
+
+    private static void viewLoanHistory() throws Exception {
+        if (events == null) {
+            System.out.println("The event log is not available.");
+            return;
+        }
+        System.out.print("Enter ISBN or Member ID: ");
+        String id = sc.nextLine().trim();
+        List<CirculationEvent> history = scheduler.interactive(() -> {
+            List<CirculationEvent> memberHistory = events.memberHistory(id);
+            return memberHistory.isEmpty() ? events.bookHistory(id) : memberHistory;
+        });
+        if (history.isEmpty()) {
+            System.out.println("No recorded history for " + id + ".");
+            return;
+        }
+        
+        System.out.println("\nHistory of " + id + ":");
+        for (CirculationEvent event : history) {
+            String when = Instant.ofEpochMilli(event.timestamp()).atZone(ZoneId.systemDefault())
+                    .toLocalDate().toString();
+            switch (event.type()) {
+                case BORROWED -> System.out.println(when + "  Borrowed: ISBN " + event.isbn() + " by member " +
+                                                    event.memberId() + ", due " + event.dueDate());
+                case RETURNED -> System.out.println(when + "  Returned: ISBN " + event.isbn() + " by member " +
+                                                    event.memberId());
+                case BOOK_ADDED -> System.out.println(when + "  Added to catalog: " + event.book().getTitle());
+                case BOOK_REMOVED -> System.out.println(when + "  Removed from catalog");
+                case BOOK_UPDATED -> System.out.println(when + "  Catalog entry edited: " + event.book().getTitle());
+                case MEMBER_ADDED -> System.out.println(when + "  Member " + event.memberId() + " joined" +
+                        (event.loans().containsKey(id) ? " holding this book" : ""));
+            }
+        }
+    }
+
+    private static void viewRecommendations() throws Exception {
+        System.out.print("Enter ISBN or Member ID: ");
+        String id = sc.nextLine().trim();
+        List<Book> recommended = scheduler.interactive(() -> library.getBook(id) != null
+                ? library.recommendForBook(id, 10) : library.recommendForMember(id, 10));
+        if (recommended.isEmpty()) {
+            System.out.println("No recommendations yet - not enough loans recorded.");
+        } else {
+            System.out.println("\nRecommended:");
+            printBooks(recommended);
+        }
+    }
+
     // Existing helper methods...
     private static void addBook() throws Exception {
         System.out.print("Title: "); String title = sc.nextLine();
@@ -271,6 +497,20 @@ public class Main {
         System.out.println("Book added successfully!");
     }
 
+    private static void importBooks() throws Exception {
+        System.out.print("CSV file to import: ");
+        String filename = sc.nextLine().trim();
+        System.out.print("Dry run only? (y/n): ");
+        boolean dryRun = sc.nextLine().trim().equalsIgnoreCase("y");
+        String rejectsFile = filename + ".rejects.csv";
+        
+        BookImportService.ImportReport report = new BookImportService(library).importBooks(filename, rejectsFile, dryRun);
+        System.out.println(report);
+        if (report.rejected() > 0) {
+            System.out.println("Rejected rows written to " + rejectsFile);
+        }
+    }
+
     private static void removeBook() throws Exception {
         System.out.print("ISBN to remove: ");
         String isbn = sc.nextLine();
@@ -281,11 +521,18 @@ public class Main {
     private static void searchByAuthor() {
         System.out.print("Author: ");
         String author = sc.nextLine();
-        List<Book> books = library.searchByAuthor(author);
-        if (books.isEmpty()) {
+        List<Book> books = scheduler.lookup(() -> library.searchByAuthor(author));
+        if (!books.isEmpty()) {
+            printBooks(books);
+            return;
+        }
+        
+        List<Book> suggestions = scheduler.lookup(() -> library.fuzzySearchAuthors(author, 10));
+        if (suggestions.isEmpty()) {
             System.out.println("No books found by this author.");
         } else {
-            printBooks(books);
+            System.out.println("No exact match. Did you mean:");
+            printBooks(suggestions);
         }
     }
 
@@ -293,7 +540,7 @@ public class Main {
         System.out.print("Genre (FICTION, SCIENCE, HISTORY, MYSTERY, BIOGRAPHY): ");
         try {
             Genre genre = Genre.valueOf(sc.nextLine().toUpperCase());
-            List<Book> books = library.searchByGenre(genre);
+            List<Book> books = scheduler.lookup(() -> library.searchByGenre(genre));
             if (books.isEmpty()) {
                 System.out.println("No books found in this genre.");
             } else {
@@ -315,28 +562,89 @@ public class Main {
     }
 
     // Data persistence methods
-    private static void loadData() {
-        int booksLoaded = 0;
-        int membersLoaded = 0;
+    private static void startLoading(boolean background, boolean replay) {
+        Executor executor = background
+                ? Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "data-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : Runnable::run;
         
+        // Books come first so book screens are usable while members are still loading
+        booksReady = CompletableFuture.runAsync(replay ? Main::replayEvents : Main::loadBooks, executor);
+        membersReady = booksReady.thenRunAsync(replay ? Main::loadFines : Main::loadMembers, executor)
+                .thenRun(() -> library.setRepository(openRepository()))
+                .thenRun(Main::startEventLog)
+                .thenRun(Main::startAutosave)
+                .thenRun(Main::accrueFines)
+                .thenRun(Main::scheduleFineAccrual);
+    }
+
+    // The nightly accrual for a long-running instance. The check runs hourly, from the top of the next hour,
+    // so the pass happens within an hour of midnight whatever the clock does; accrueFines skips a day already done.
+    private static void scheduleFineAccrual() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fine-accrual");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long untilNextHour = Duration.between(LocalDateTime.now(),
+                LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).plusHours(1)).toMillis();
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                accrueFines();
+            } catch (RuntimeException e) {
+                System.err.println("Fine accrual failed: " + e.getMessage());
+            }
+        }, untilNextHour, TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS);
+    }
+
+    private static void awaitBooks() {
+        if (!booksReady.isDone()) {
+            System.out.println("Waiting for books to finish loading...");
+        }
+        booksReady.join();
+    }
+
+    private static void awaitMembers() {
+        if (!membersReady.isDone()) {
+            System.out.println("Waiting for members to finish loading...");
+        }
+        membersReady.join();
+    }
+
+    private static void awaitAll() {
+        awaitBooks();
+        awaitMembers();
+    }
+
+    private static void loadBooks() {
         try {
-            // Load books
-            System.out.println("Loading books from " + BOOKS_FILE + "...");
-            List<Book> books = fileService.loadBooksFromFile(BOOKS_FILE);
-            for (Book book : books) {
-                try {
-                    library.addBook(book);
-                    booksLoaded++;
-                } catch (DuplicateBookException e) {
-                    System.err.println("Skipping duplicate book: " + book.getIsbn());
-                } catch (Exception e) {
-                    System.err.println("Error loading book " + book.getIsbn() + ": " + e.getMessage());
-                }
+            System.out.println("Loading books from " + booksFile + "...");
+            List<Book> books = openRepository().loadBooks();
+            BookImportService.ImportReport report = new BookImportService(library).loadBooks(books, LOAD_REJECTS_FILE);
+            // Loaded records are already on disk
+            library.getChangeTracker().discardBookChanges();
+            if (report.rejected() > 0) {
+                System.err.println("Skipped " + report.rejected() + " duplicate books, listed in " + LOAD_REJECTS_FILE);
             }
+            System.out.println("Books loaded successfully: " + report.accepted() + " books");
+        } catch (Exception e) {
+            System.out.println("Error loading books: " + e.getMessage());
+            System.out.println("Starting with empty catalog.");
+        }
+    }
+
+    private static void loadMembers() {
+        int membersLoaded = 0;
+        
+        try {
+            // Load fines before members so the nightly pass knows where it left off
+            loadFines();
             
-            // Load members
-            System.out.println("Loading members from " + MEMBERS_FILE + "...");
-            List<Member> members = fileService.loadMembersFromFile(MEMBERS_FILE);
+            System.out.println("Loading members from " + membersFile + "...");
+            List<Member> members = openRepository().loadMembers();
             for (Member member : members) {
                 try {
                     library.addMember(member);
@@ -347,32 +655,182 @@ public class Main {
                     System.err.println("Error loading member " + member.getMemberId() + ": " + e.getMessage());
                 }
             }
-            
-            System.out.println("Data loaded successfully: " + 
-                             booksLoaded + " books, " + 
-                             membersLoaded + " members");
+            library.getChangeTracker().discardMemberChanges();
+            System.out.println("Members loaded successfully: " + membersLoaded + " members");
         } catch (Exception e) {
-            System.out.println("Error loading data: " + e.getMessage());
-            System.out.println("Starting with empty library.");
+            System.out.println("Error loading members: " + e.getMessage());
+            System.out.println("Starting with no members.");
+        }
+    }
+
+    private static void loadFines() {
+        fileService.loadFinesFromFile(library.getFines(), FINES_FILE);
+    }
+
+    // Rebuilds books and members from the latest snapshot plus later events. The replayed records are
+    // left pending in the change tracker, so the next save brings the CSV files up to date.
+    private static void replayEvents() {
+        try {
+            System.out.println("Replaying event log from " + EVENTS_DIR + "...");
+            events = new EventStore(EVENTS_DIR);
+            EventStore.Projection state = events.replay();
+            library.addBooks(state.getBooks());
+            for (Member member : state.getMembers()) {
+                library.addMember(member);
+            }
+            System.out.println("Replayed " + state.getSequence() + " events: " + library.getBookCount() +
+                               " books, " + library.getMemberCount() + " members");
+        } catch (Exception e) {
+            System.out.println("Error replaying event log: " + e.getMessage());
+            System.out.println("Starting with empty catalog.");
+        }
+    }
+
+    // Attaches the event log once loading is done, so loaded records are not logged again. A new log
+    // starts from a snapshot of the loaded state. Screens that change data wait for this step.
+    private static void startEventLog() {
+        try {
+            if (events == null) {
+                events = new EventStore(EVENTS_DIR);
+            }
+            library.setEventStore(events);
+            if (events.isEmpty()) {
+                library.snapshotEvents();
+            } else {
+                library.rebuildRecommendations();
+            }
+        } catch (Exception e) {
+            System.out.println("Event log unavailable, history will not be recorded: " + e.getMessage());
+            library.setEventStore(null);
+        }
+    }
+
+    // Batch mode: --batch reads commands from stdin, --batch=FILE from a file. Saves on exit like option 5.
+    private static int runBatch(String scriptFile) {
+        awaitAll();
+        long errors;
+        try (InputStream script = scriptFile == null ? System.in : new FileInputStream(scriptFile)) {
+            errors = new BatchRunner(library, scheduler, Main::flushData).run(script, System.out);
+        } catch (IOException e) {
+            System.err.println("Batch failed: " + e.getMessage());
+            return 2;
+        }
+        saveData();
+        closeRepository();
+        scheduler.shutdown();
+        return errors > 0 ? 1 : 0;
+    }
+
+    // Autosave options: --autosave-changes=N and/or --autosave-seconds=T
+    private static void configureAutosave(String[] args) {
+        int everyChanges = 0;
+        long everySeconds = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--autosave-changes=")) {
+                everyChanges = Integer.parseInt(arg.substring("--autosave-changes=".length()));
+            } else if (arg.startsWith("--autosave-seconds=")) {
+                everySeconds = Long.parseLong(arg.substring("--autosave-seconds=".length()));
+            }
+        }
+        if (everyChanges > 0 || everySeconds > 0) {
+            autosave = new AutosaveService(library.getChangeTracker(), Main::saveChanges, everyChanges, everySeconds);
+        }
+    }
+
+    // Runs once both loads have discarded their change tracker entries. Started earlier, autosave could
+    // drain the loaded records from the tracker and write them back before the discard.
+    private static void startAutosave() {
+        if (autosave != null) {
+            autosave.start();
+        }
+    }
+
+    // Opened on first use
+    private static synchronized LibraryRepository openRepository() {
+        if (repository == null) {
+            convertSnapshots();
+            repository = new CsvLibraryRepository(fileService, booksFile, membersFile, DELTA_FILE);
         }
+        return repository;
+    }
+
+    // Rewrites snapshots saved in the other format after --compressed is turned on or off. The delta log
+    // applies to either format, so it is kept as it is.
+    private static void convertSnapshots() {
+        String previous = booksFile.endsWith(FileService.COMPRESSED_EXTENSION) ? PLAIN_EXTENSION : FileService.COMPRESSED_EXTENSION;
+        String oldBooks = BOOKS_SNAPSHOT + previous;
+        String oldMembers = MEMBERS_SNAPSHOT + previous;
+        try {
+            if (!new File(booksFile).exists() && new File(oldBooks).exists()) {
+                System.out.println("Converting " + oldBooks + " to " + booksFile + "...");
+                fileService.saveBooksToFile(fileService.loadBooksFromFile(oldBooks).iterator(), booksFile);
+                if (!new File(oldBooks).delete()) {
+                    System.err.println("Error deleting " + oldBooks);
+                }
+            }
+            if (!new File(membersFile).exists() && new File(oldMembers).exists()) {
+                System.out.println("Converting " + oldMembers + " to " + membersFile + "...");
+                fileService.saveMembersToFile(fileService.loadMembersFromFile(oldMembers).iterator(), membersFile);
+                if (!new File(oldMembers).delete()) {
+                    System.err.println("Error deleting " + oldMembers);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error converting snapshots, keeping the old files: " + e.getMessage());
+        }
+    }
+
+    private static void closeRepository() {
+        try {
+            openRepository().close();
+        } catch (IOException e) {
+            System.err.println("Error closing storage: " + e.getMessage());
+        }
+    }
+
+    // Writes the records changed since the last save to the repository
+    private static int saveChanges() {
+        return library.flushChanges();
     }
 
     private static void saveData() {
+        if (autosave != null) {
+            autosave.stop();
+        }
         try {
-            System.out.println("Saving books to " + BOOKS_FILE + "...");
-            List<Book> books = library.getAllBooks();
-            fileService.saveBooksToFile(books, BOOKS_FILE);
-            
-            System.out.println("Saving members to " + MEMBERS_FILE + "...");
-            List<Member> members = library.getAllMembers();
-            fileService.saveMembersToFile(members, MEMBERS_FILE);
-            
-            System.out.println("Data saved successfully - " + 
-                             books.size() + " books, " + 
-                             members.size() + " members");
+            System.out.println(flushData());
         } catch (Exception e) {
             System.err.println("Error saving data: " + e.getMessage());
             e.printStackTrace();
         }
+        if (events != null) {
+            try {
+                events.close();
+            } catch (IOException e) {
+                System.err.println("Error closing event log: " + e.getMessage());
+            }
+        }
+    }
+
+    // Writes everything pending and returns a summary. Autosave and the event log keep running, so a
+    // batch script can save part way through and carry on.
+    private static String flushData() throws IOException {
+        if (events != null && events.isSnapshotDue()) {
+            try {
+                library.snapshotEvents();
+            } catch (IOException e) {
+                System.err.println("Error writing event log snapshot: " + e.getMessage());
+            }
+        }
+        library.setRepository(openRepository());
+        fileService.saveFinesToFile(library.getFines(), FINES_FILE);
+        if (!repository.needsCompaction()) {
+            return "Data saved successfully - " + saveChanges() + " changed records";
+        }
+        
+        // The delta log has grown large: rewrite the snapshots and start a new log
+        library.compactRepository();
+        return "Data saved successfully - " + library.getBookCount() + " books, " + library.getMemberCount() +
+               " members written to " + booksFile + " and " + membersFile;
     }
-}
\ No newline at end of file
+}
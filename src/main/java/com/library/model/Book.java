@@ -6,6 +6,7 @@ public class Book {
     private String isbn;
     private int publicationYear;
     private Genre genre;
+    private ChangeListener changeListener;
 
     // Constructor
     public Book(String title, String author, String isbn, int publicationYear, Genre genre) {
@@ -26,7 +27,9 @@ public class Book {
     }
 
     public void setTitle(String title) {
+        changing();
         this.title = title;
+        changed();
     }
 
     public String getAuthor() {
@@ -34,7 +37,9 @@ public class Book {
     }
 
     public void setAuthor(String author) {
+        changing();
         this.author = author;
+        changed();
     }
 
     public String getIsbn() {
@@ -42,7 +47,9 @@ public class Book {
     }
 
     public void setIsbn(String isbn) {
+        changing();
         this.isbn = isbn;
+        changed();
     }
 
     public int getPublicationYear() {
@@ -50,7 +57,9 @@ public class Book {
     }
 
     public void setPublicationYear(int publicationYear) {
+        changing();
         this.publicationYear = publicationYear;
+        changed();
     }
 
     public Genre getGenre() {
@@ -58,7 +67,30 @@ public class Book {
     }
 
     public void setGenre(Genre genre) {
+        changing();
         this.genre = genre;
+        changed();
+    }
+
+    public void setChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void changing() {
+        if (changeListener != null) {
+            changeListener.bookChanging(this);
+        }
+    }
+
+    private void changed() {
+        if (changeListener != null) {
+            changeListener.bookChanged(this);
+        }
+    }
+
+    public String toCsvString() {
+        return "\"" + title.replace("\"", "\"\"") + "\",\"" + author.replace("\"", "\"\"") + "\"," +
+                isbn + "," + publicationYear + "," + genre;
     }
 
     @Override
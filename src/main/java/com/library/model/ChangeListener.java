@@ -0,0 +1,12 @@
+package com.library.model;
+
+// Notified after a tracked book or member is modified
+public interface ChangeListener {
+    // Called just before a tracked book is modified, while it still has its old values
+    default void bookChanging(Book book) {
+    }
+
+    void bookChanged(Book book);
+
+    void memberChanged(Member member);
+}
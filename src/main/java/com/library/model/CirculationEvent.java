@@ -0,0 +1,56 @@
+package com.library.model;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable entry in the event log. Only the fields of its type are set: BOOK_ADDED and
+ * BOOK_UPDATED carry the book as it then stood, MEMBER_ADDED the member name and any loans it arrived with, BORROWED the due date. The
+ * sequence number and timestamp are assigned when the event is appended.
+ */
+public record CirculationEvent(long sequence, long timestamp, Type type, String memberId, String isbn,
+                               Book book, String memberName, Map<String, LocalDate> loans, LocalDate dueDate) {
+
+    public enum Type {
+        // Stored by ordinal, so new types go at the end
+        BOOK_ADDED, BOOK_REMOVED, MEMBER_ADDED, BORROWED, RETURNED, BOOK_UPDATED
+    }
+
+    public static CirculationEvent bookAdded(Book book) {
+        return new CirculationEvent(0, 0, Type.BOOK_ADDED, null, book.getIsbn(), copy(book), null, null, null);
+    }
+
+    public static CirculationEvent bookUpdated(Book book) {
+        return new CirculationEvent(0, 0, Type.BOOK_UPDATED, null, book.getIsbn(), copy(book), null, null, null);
+    }
+
+    public static CirculationEvent bookRemoved(String isbn) {
+        return new CirculationEvent(0, 0, Type.BOOK_REMOVED, null, isbn, null, null, null, null);
+    }
+
+    public static CirculationEvent memberAdded(Member member) {
+        return new CirculationEvent(0, 0, Type.MEMBER_ADDED, member.getMemberId(), null, null, member.getName(),
+                Map.copyOf(member.getBorrowedBooks()), null);
+    }
+
+    public static CirculationEvent borrowed(String memberId, String isbn, LocalDate dueDate) {
+        return new CirculationEvent(0, 0, Type.BORROWED, memberId, isbn, null, null, null, dueDate);
+    }
+
+    public static CirculationEvent returned(String memberId, String isbn) {
+        return new CirculationEvent(0, 0, Type.RETURNED, memberId, isbn, null, null, null, null);
+    }
+
+    public CirculationEvent stamped(long sequence, long timestamp) {
+        return new CirculationEvent(sequence, timestamp, type, memberId, isbn, book, memberName, loans, dueDate);
+    }
+
+    public Map<String, LocalDate> loans() {
+        return loans == null ? Collections.emptyMap() : loans;
+    }
+
+    private static Book copy(Book book) {
+        return new Book(book.getTitle(), book.getAuthor(), book.getIsbn(), book.getPublicationYear(), book.getGenre());
+    }
+}
@@ -3,14 +3,16 @@ package com.library.model;
 import java.io.*;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.time.temporal.ChronoUnit;
 
 public class Member {
     private String memberId;
     private String name;
-    private Map<String, LocalDate> borrowedBooks = new HashMap<>(); // ISBN -> Due Date
+    private Map<String, LocalDate> borrowedBooks = new ConcurrentHashMap<>(); // ISBN -> Due Date
     private static final int MAX_BOOKS = 5;
     private static final int BORROW_DAYS = 14;
+    private ChangeListener changeListener;
 
     // Constructor
     public Member() {
@@ -28,6 +30,7 @@ public class Member {
 
     public void setMemberId(String memberId) {
         this.memberId = memberId;
+        changed();
     }
 
     public String getName() {
@@ -36,6 +39,7 @@ public class Member {
 
     public void setName(String name) {
         this.name = name;
+        changed();
     }
 
     public Map<String, LocalDate> getBorrowedBooks() {
@@ -47,8 +51,13 @@ public class Member {
     }
 
     public boolean hasOverdueBooks() {
-        return borrowedBooks.values().stream()
-                .anyMatch(dueDate -> LocalDate.now().isAfter(dueDate));
+        LocalDate today = LocalDate.now();
+        for (LocalDate dueDate : borrowedBooks.values()) {
+            if (today.isAfter(dueDate)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public List<String> getOverdueBooks() {
@@ -66,10 +75,16 @@ public class Member {
     }
 
     public boolean borrowBook(String isbn) {
-        if (isbn == null || isbn.trim().isEmpty() || !canBorrow()) {
+        return borrowBook(isbn, LocalDate.now().plusDays(BORROW_DAYS));
+    }
+
+    // Used when replaying a recorded loan, which keeps its original due date
+    public boolean borrowBook(String isbn, LocalDate dueDate) {
+        if (isbn == null || isbn.trim().isEmpty() || dueDate == null || !canBorrow()) {
             return false;
         }
-        borrowedBooks.put(isbn, LocalDate.now().plusDays(BORROW_DAYS));
+        borrowedBooks.put(isbn, dueDate);
+        changed();
         return true;
     }
 
@@ -77,7 +92,21 @@ public class Member {
         if (isbn == null) {
             return false;
         }
-        return borrowedBooks.remove(isbn) != null;
+        if (borrowedBooks.remove(isbn) == null) {
+            return false;
+        }
+        changed();
+        return true;
+    }
+
+    public void setChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void changed() {
+        if (changeListener != null) {
+            changeListener.memberChanged(this);
+        }
     }
 
     public String toCsvString() {
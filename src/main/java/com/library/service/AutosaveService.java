@@ -0,0 +1,62 @@
+package com.library.service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Runs an incremental save on a background thread once enough changes are pending or enough time has passed
+public class AutosaveService {
+    private static final long CHECK_INTERVAL_MILLIS = 200;
+
+    private final ChangeTracker changes;
+    private final Runnable save;
+    private final int everyChanges;
+    private final long everyMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "autosave");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long lastSave = System.currentTimeMillis();
+
+    // A limit of zero disables that trigger
+    public AutosaveService(ChangeTracker changes, Runnable save, int everyChanges, long everySeconds) {
+        if (everyChanges < 0 || everySeconds < 0) {
+            throw new IllegalArgumentException("Autosave limits cannot be negative");
+        }
+        this.changes = changes;
+        this.save = save;
+        this.everyChanges = everyChanges;
+        this.everyMillis = TimeUnit.SECONDS.toMillis(everySeconds);
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void check() {
+        int pending = changes.getPendingCount();
+        long now = System.currentTimeMillis();
+        if (pending == 0) {
+            lastSave = now;
+            return;
+        }
+        if ((everyChanges > 0 && pending >= everyChanges) || (everyMillis > 0 && now - lastSave >= everyMillis)) {
+            try {
+                save.run();
+            } catch (RuntimeException e) {
+                System.err.println("Autosave failed: " + e.getMessage());
+            }
+            lastSave = now;
+        }
+    }
+}
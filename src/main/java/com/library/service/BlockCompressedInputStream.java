@@ -0,0 +1,157 @@
+package com.library.service;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads streams written by {@link BlockCompressedOutputStream}. Blocks are read ahead and
+ * inflated on a shared pool while earlier blocks are consumed; a checksum or framing error
+ * fails with the index of the offending block.
+ */
+public class BlockCompressedInputStream extends InputStream {
+    private static final int READ_AHEAD = Runtime.getRuntime().availableProcessors() * 2;
+    private static final ExecutorService INFLATERS = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread thread = new Thread(r, "block-inflater");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final DataInputStream in;
+    private final int blockSize;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private long nextBlock;
+    private boolean endOfBlocks;
+    private byte[] current = new byte[0];
+    private int position;
+
+    public BlockCompressedInputStream(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        if (this.in.readInt() != BlockCompressedOutputStream.MAGIC) {
+            throw new IOException("Not a block-compressed stream");
+        }
+        this.blockSize = this.in.readInt();
+        if (blockSize < 1 || blockSize > BlockCompressedOutputStream.MAX_BLOCK_SIZE) {
+            throw new IOException("Corrupt header: invalid block size " + blockSize);
+        }
+    }
+
+    // True when the stream starts with the block-compressed magic number; the stream must support mark
+    public static boolean isBlockCompressed(InputStream in) throws IOException {
+        in.mark(4);
+        try {
+            DataInputStream data = new DataInputStream(in);
+            return data.readInt() == BlockCompressedOutputStream.MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.reset();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == current.length && !nextBlock()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == current.length && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pending.forEach(f -> f.cancel(false));
+        pending.clear();
+        in.close();
+    }
+
+    private boolean nextBlock() throws IOException {
+        while (!endOfBlocks && pending.size() < READ_AHEAD) {
+            readFrame();
+        }
+        Future<byte[]> next = pending.poll();
+        if (next == null) {
+            return false;
+        }
+        try {
+            current = next.get();
+            position = 0;
+            return true;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decompressing");
+        }
+    }
+
+    private void readFrame() throws IOException {
+        long index = nextBlock++;
+        try {
+            int rawLength = in.readInt();
+            if (rawLength == 0) {
+                endOfBlocks = true;
+                return;
+            }
+            int compressedLength = in.readInt();
+            int checksum = in.readInt();
+            // A bad length would otherwise be allocated before the checksum can reject it
+            if (rawLength < 0 || rawLength > blockSize || compressedLength <= 0
+                    || compressedLength > BlockCompressedOutputStream.maxCompressedLength(rawLength)) {
+                throw new IOException("Corrupt block " + index + ": invalid block header");
+            }
+            byte[] compressed = new byte[compressedLength];
+            in.readFully(compressed);
+            pending.add(INFLATERS.submit(() -> inflate(index, compressed, rawLength, checksum)));
+        } catch (EOFException e) {
+            throw new IOException("Truncated stream at block " + index, e);
+        }
+    }
+
+    private static byte[] inflate(long index, byte[] compressed, int rawLength, int checksum) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(compressed, 0, compressed.length);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Corrupt block " + index + ": checksum mismatch");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, rawLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != rawLength || !inflater.finished()) {
+                throw new IOException("Corrupt block " + index + ": decompressed size mismatch");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + index + ": " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.library.service;
+
+import java.io.*;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+
+/**
+ * Splits the stream into fixed-size blocks, deflates each block independently and prefixes it
+ * with its raw length, compressed length and the CRC32C of the compressed bytes. Independent
+ * blocks can be decompressed in parallel and verified one at a time on load.
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+    static final int MAGIC = 0x4C4D535A; // "LMSZ"
+    static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    static final int MAX_BLOCK_SIZE = 1 << 20; // Readers refuse larger blocks, so a corrupt header cannot size a huge buffer
+
+    private final DataOutputStream out;
+    private final Deflater deflater;
+    private final byte[] block;
+    private byte[] compressed;
+    private int count;
+    private boolean closed;
+
+    public BlockCompressedOutputStream(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public BlockCompressedOutputStream(OutputStream out, int blockSize, int level) throws IOException {
+        if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be between 1 and " + MAX_BLOCK_SIZE);
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.deflater = new Deflater(level);
+        this.block = new byte[blockSize];
+        this.compressed = new byte[(int) Math.min(Integer.MAX_VALUE - 8, maxCompressedLength(blockSize))];
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(blockSize);
+    }
+
+    // Upper bound on the deflated size of a block of rawLength bytes: zlib's conservative deflate bound
+    // (stored blocks for incompressible data) plus the stream header and trailer
+    static long maxCompressedLength(int rawLength) {
+        return rawLength + ((rawLength + 7L) >> 3) + ((rawLength + 63L) >> 6) + 64;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == block.length) {
+            writeBlock();
+        }
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == block.length) {
+                writeBlock();
+            }
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (count > 0) {
+                writeBlock();
+            }
+            out.writeInt(0); // End-of-stream marker
+            out.close();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        deflater.reset();
+        deflater.setInput(block, 0, count);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                byte[] grown = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, grown, 0, length);
+                compressed = grown;
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(compressed, 0, length);
+        out.writeInt(count);
+        out.writeInt(length);
+        out.writeInt((int) crc.getValue());
+        out.write(compressed, 0, length);
+        count = 0;
+    }
+}
@@ -0,0 +1,367 @@
+package com.library.service;
+
+import com.library.model.Book;
+import com.library.model.Genre;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Year;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Bulk book import in three stages, each on its own thread and connected by bounded queues:
+ * parse (CSV line to fields), validate (ISBN checksum, year range, genre mapping) and insert
+ * (batched into {@link LibraryService}). Rejected rows go to a rejects CSV with their line number
+ * and reason. Each run deletes the previous rejects file and only creates a new one once a row is
+ * rejected, so a rejects file always belongs to the last run. A dry run validates everything, including
+ * duplicates, without touching the library. Saved catalogs are already in memory and validated, so
+ * they are inserted in batches on the calling thread without the pipeline.
+ */
+public class BookImportService {
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int BATCH_SIZE = 1000;
+    private static final int MIN_YEAR = 1450;
+
+    private final LibraryService library;
+
+    public BookImportService(LibraryService library) {
+        this.library = library;
+    }
+
+    public ImportReport importBooks(String filename, String rejectsFilename, boolean dryRun) throws IOException {
+        try (InputStream in = new FileInputStream(filename)) {
+            RejectLog rejects = RejectLog.toFile(rejectsFilename);
+            try {
+                return importBooks(in, rejects, dryRun);
+            } finally {
+                rejects.close();
+            }
+        }
+    }
+
+    public ImportReport importBooks(InputStream in, PrintWriter rejects, boolean dryRun) throws IOException {
+        return importBooks(in, new RejectLog(() -> rejects), dryRun);
+    }
+
+    // Adds a saved catalog in batches. Its records were validated when they were first imported, so only
+    // duplicates are rejected; rows are numbered by record.
+    public ImportReport loadBooks(Collection<Book> books, String rejectsFilename) throws IOException {
+        long start = System.nanoTime();
+        RejectLog rejects = RejectLog.toFile(rejectsFilename);
+        long inserted = 0;
+        try {
+            List<Book> batch = new ArrayList<>(Math.min(BATCH_SIZE, books.size()));
+            long recordNumber = 0;
+            for (Book book : books) {
+                batch.add(book);
+                if (batch.size() == BATCH_SIZE) {
+                    inserted += insertBatch(batch, recordNumber, rejects);
+                    recordNumber += batch.size();
+                    batch.clear();
+                }
+            }
+            inserted += insertBatch(batch, recordNumber, rejects);
+        } finally {
+            rejects.close();
+        }
+        return new ImportReport(false, new StageStats("read", books.size(), 0), new StageStats("validate", 0, 0),
+                new StageStats("insert", inserted, System.nanoTime() - start), rejects.count);
+    }
+
+    private int insertBatch(List<Book> batch, long firstRecord, RejectLog rejects) throws IOException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        Set<Book> duplicates = Collections.newSetFromMap(new IdentityHashMap<>());
+        duplicates.addAll(library.addBooks(batch));
+        for (int i = 0; i < batch.size(); i++) {
+            if (duplicates.contains(batch.get(i))) {
+                rejects.reject(firstRecord + i + 1, "Duplicate ISBN: " + batch.get(i).getIsbn(), null);
+            }
+        }
+        return batch.size() - duplicates.size();
+    }
+
+    private ImportReport importBooks(InputStream in, RejectLog rejectLog, boolean dryRun) throws IOException {
+        BlockingQueue<Row> parsed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<List<Row>> validated = new ArrayBlockingQueue<>(QUEUE_CAPACITY / BATCH_SIZE);
+        ExecutorService stages = stages(3);
+        try {
+            CompletableFuture<StageStats> parse = stage(stages, () -> parse(in, parsed, rejectLog));
+            CompletableFuture<StageStats> validate = stage(stages, () -> validate(parsed, validated, rejectLog, dryRun));
+            CompletableFuture<StageStats> insert = stage(stages, () -> insert(validated, rejectLog, dryRun));
+            return new ImportReport(dryRun, await(parse), await(validate), await(insert), rejectLog.count);
+        } finally {
+            stages.shutdownNow();
+        }
+    }
+
+    private static ExecutorService stages(int count) {
+        return Executors.newFixedThreadPool(count, r -> {
+            Thread thread = new Thread(r, "book-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // A failing stage interrupts the others so none stays blocked on a queue nobody is draining
+    private static CompletableFuture<StageStats> stage(ExecutorService stages, Callable<StageStats> work) {
+        CompletableFuture<StageStats> future = new CompletableFuture<>();
+        stages.execute(() -> {
+            try {
+                future.complete(work.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+                stages.shutdownNow();
+            }
+        });
+        return future;
+    }
+
+    private StageStats parse(InputStream in, BlockingQueue<Row> out, RejectLog rejects) throws Exception {
+        long start = System.nanoTime();
+        long lineNumber = 0;
+        long processed = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            lineNumber++;
+            if (line == null || !line.startsWith("title,author")) {
+                rejects.reject(lineNumber, "Missing header: expected title,author,isbn,year,genre", line);
+            } else {
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.trim().isEmpty()) continue;
+                    processed++;
+                    List<String> fields = FileService.splitCsvLine(line.trim());
+                    if (fields.size() != 5) {
+                        rejects.reject(lineNumber, "Expected 5 fields but found " + fields.size(), line);
+                    } else {
+                        out.put(new Row(lineNumber, line, fields));
+                    }
+                }
+            }
+        }
+        out.put(Row.END);
+        return new StageStats("parse", processed, System.nanoTime() - start);
+    }
+
+    private StageStats validate(BlockingQueue<Row> in, BlockingQueue<List<Row>> out, RejectLog rejects,
+                                boolean dryRun) throws Exception {
+        long start = System.nanoTime();
+        long processed = 0;
+        int maxYear = Year.now().getValue() + 1;
+        Set<String> seenIsbns = dryRun ? new HashSet<>() : null;
+        List<Row> batch = new ArrayList<>(BATCH_SIZE);
+        for (Row row = in.take(); row != Row.END; row = in.take()) {
+            processed++;
+            String reason = null;
+            String title = row.fields.get(0).trim();
+            String author = row.fields.get(1).trim();
+            String isbn = normalizeIsbn(row.fields.get(2));
+            Integer year = parseYear(row.fields.get(3));
+            Genre genre = mapGenre(row.fields.get(4));
+
+            if (title.isEmpty() || author.isEmpty()) {
+                reason = "Title and author are required";
+            } else if (!isValidIsbn(isbn)) {
+                reason = "Invalid ISBN checksum: " + row.fields.get(2).trim();
+            } else if (year == null || year < MIN_YEAR || year > maxYear) {
+                reason = "Year out of range " + MIN_YEAR + "-" + maxYear + ": " + row.fields.get(3).trim();
+            } else if (genre == null) {
+                reason = "Unknown genre: " + row.fields.get(4).trim();
+            } else if (dryRun && (library.getBook(isbn) != null || !seenIsbns.add(isbn))) {
+                reason = "Duplicate ISBN: " + isbn;
+            }
+
+            if (reason != null) {
+                rejects.reject(row.lineNumber, reason, row.line);
+                continue;
+            }
+            row.book = new Book(title, author, isbn, year, genre);
+            batch.add(row);
+            if (batch.size() == BATCH_SIZE) {
+                out.put(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) {
+            out.put(batch);
+        }
+        out.put(Collections.emptyList());
+        return new StageStats("validate", processed, System.nanoTime() - start);
+    }
+
+    private StageStats insert(BlockingQueue<List<Row>> in, RejectLog rejects, boolean dryRun) throws Exception {
+        long start = System.nanoTime();
+        long inserted = 0;
+        for (List<Row> batch = in.take(); !batch.isEmpty(); batch = in.take()) {
+            if (dryRun) {
+                inserted += batch.size();
+                continue;
+            }
+            List<Book> books = new ArrayList<>(batch.size());
+            batch.forEach(row -> books.add(row.book));
+            Set<Book> duplicates = Collections.newSetFromMap(new IdentityHashMap<>());
+            duplicates.addAll(library.addBooks(books));
+            for (Row row : batch) {
+                if (duplicates.contains(row.book)) {
+                    rejects.reject(row.lineNumber, "Duplicate ISBN: " + row.book.getIsbn(), row.line);
+                } else {
+                    inserted++;
+                }
+            }
+        }
+        return new StageStats("insert", inserted, System.nanoTime() - start);
+    }
+
+    private static StageStats await(CompletableFuture<StageStats> stage) throws IOException {
+        try {
+            return stage.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException("Import failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        }
+    }
+
+    static String normalizeIsbn(String raw) {
+        return raw.trim().replace("-", "").replace(" ", "").toUpperCase(Locale.ROOT);
+    }
+
+    // ISBN-10 (mod 11, 'X' = 10 in the last position) or ISBN-13 (mod 10, weights 1 and 3)
+    static boolean isValidIsbn(String isbn) {
+        if (isbn.length() == 10) {
+            int sum = 0;
+            for (int i = 0; i < 10; i++) {
+                char c = isbn.charAt(i);
+                int digit;
+                if (c >= '0' && c <= '9') {
+                    digit = c - '0';
+                } else if (c == 'X' && i == 9) {
+                    digit = 10;
+                } else {
+                    return false;
+                }
+                sum += digit * (10 - i);
+            }
+            return sum % 11 == 0;
+        }
+        if (isbn.length() == 13) {
+            int sum = 0;
+            for (int i = 0; i < 13; i++) {
+                char c = isbn.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+                sum += (c - '0') * (i % 2 == 0 ? 1 : 3);
+            }
+            return sum % 10 == 0;
+        }
+        return false;
+    }
+
+    private static Integer parseYear(String raw) {
+        try {
+            return Integer.parseInt(raw.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Genre mapGenre(String raw) {
+        String name = raw.trim().toUpperCase(Locale.ROOT).replace(' ', '_').replace('-', '_');
+        try {
+            return Genre.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static class Row {
+        static final Row END = new Row(-1, null, null);
+
+        final long lineNumber;
+        final String line;
+        final List<String> fields;
+        Book book;
+
+        Row(long lineNumber, String line, List<String> fields) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+            this.fields = fields;
+        }
+    }
+
+    private interface WriterOpener {
+        PrintWriter open() throws IOException;
+    }
+
+    // Written to by all stages, so every reject is serialized through this lock. The writer is opened,
+    // and the header written, on the first reject.
+    private static class RejectLog {
+        private final WriterOpener opener;
+        private PrintWriter writer;
+        private long count;
+
+        RejectLog(WriterOpener opener) {
+            this.opener = opener;
+        }
+
+        // Deletes the previous run's rejects up front, so a clean run leaves no file behind
+        static RejectLog toFile(String filename) throws IOException {
+            Files.deleteIfExists(Paths.get(filename));
+            return new RejectLog(() -> new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(filename), StandardCharsets.UTF_8))));
+        }
+
+        synchronized void reject(long lineNumber, String reason, String content) throws IOException {
+            if (writer == null) {
+                writer = opener.open();
+                writer.println("line,reason,content");
+            }
+            count++;
+            writer.print(lineNumber);
+            writer.print(",\"");
+            writer.print(reason.replace("\"", "\"\""));
+            writer.print("\",\"");
+            writer.print(content == null ? "" : content.replace("\"", "\"\""));
+            writer.println('"');
+        }
+
+        synchronized void close() {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    public record StageStats(String stage, long records, long elapsedNanos) {
+        public double recordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : records * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s %,10d records in %,8.1f ms (%,.0f records/s)",
+                    stage, records, elapsedNanos / 1_000_000.0, recordsPerSecond());
+        }
+    }
+
+    public record ImportReport(boolean dryRun, StageStats parse, StageStats validate, StageStats insert,
+                               long rejected) {
+        public long accepted() {
+            return insert.records();
+        }
+
+        @Override
+        public String toString() {
+            return (dryRun ? "Dry run: " : "Import: ") + accepted() + (dryRun ? " books would be added, " : " books added, ")
+                    + rejected + " rejected\n  " + parse + "\n  " + validate + "\n  " + insert;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.library.service;
+
+import com.library.model.Book;
+import com.library.model.ChangeListener;
+import com.library.model.Member;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records which books and members changed since the last save. Each change is serialized to its
+ * CSV line on the thread that made it, so a background save can drain the pending lines without
+ * touching live objects. A null line marks a removal.
+ */
+public class ChangeTracker implements ChangeListener {
+    private Map<String, String> books = new LinkedHashMap<>();   // ISBN -> CSV line
+    private Map<String, String> members = new LinkedHashMap<>(); // Member ID -> CSV line
+
+    @Override
+    public synchronized void bookChanged(Book book) {
+        if (book.getIsbn() == null || book.getTitle() == null || book.getAuthor() == null) {
+            return; // Not complete enough to persist yet
+        }
+        books.put(book.getIsbn(), book.toCsvString());
+    }
+
+    public synchronized void bookRemoved(String isbn) {
+        books.put(isbn, null);
+    }
+
+    @Override
+    public synchronized void memberChanged(Member member) {
+        if (member.getMemberId() == null || member.getName() == null) {
+            return;
+        }
+        members.put(member.getMemberId(), member.toCsvString());
+    }
+
+    public synchronized int getPendingCount() {
+        return books.size() + members.size();
+    }
+
+    public synchronized ChangeSet drain() {
+        ChangeSet changes = new ChangeSet(books, members);
+        books = new LinkedHashMap<>();
+        members = new LinkedHashMap<>();
+        return changes;
+    }
+
+    // Puts back changes from a failed save unless they have been superseded since
+    public synchronized void restore(ChangeSet changes) {
+        changes.books().forEach((isbn, line) -> {
+            if (!books.containsKey(isbn)) books.put(isbn, line);
+        });
+        changes.members().forEach((memberId, line) -> {
+            if (!members.containsKey(memberId)) members.put(memberId, line);
+        });
+    }
+
+    public synchronized void discardBookChanges() {
+        books.clear();
+    }
+
+    public synchronized void discardMemberChanges() {
+        members.clear();
+    }
+
+    public record ChangeSet(Map<String, String> books, Map<String, String> members) {
+        public boolean isEmpty() {
+            return books.isEmpty() && members.isEmpty();
+        }
+
+        public int size() {
+            return books.size() + members.size();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.library.service;
+
+import com.library.model.Book;
+import com.library.model.Genre;
+
+import java.time.Clock;
+import java.util.*;
+
+/**
+ * Sliding-window circulation counters in hourly buckets. Memory is bounded by the window, not by the
+ * number of distinct books or members: each bucket keeps Count-Min sketches of its borrows per ISBN and
+ * per member, and a Space-Saving sketch of its most borrowed ISBNs. Window totals are kept in step as
+ * buckets are filled and retired, so per-key counts cost one sketch lookup. Per-key counts are
+ * estimates that are never below the true count.
+ */
+public class CirculationStatistics {
+    private static final int DEFAULT_WINDOW_HOURS = 30 * 24;
+    private static final int DEFAULT_TOP_K_CAPACITY = 100;
+    private static final long MILLIS_PER_HOUR = 60L * 60 * 1000;
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 256; // Power of two; overcounts by about 1% of the window's borrows
+
+    private final Clock clock;
+    private final int windowHours;
+    private final int topKCapacity;
+    private final Bucket[] buckets;
+    private long currentHour;
+
+    // Running totals over the sliding window, kept in step with the buckets
+    private final long[] borrowsByIsbn = new long[SKETCH_DEPTH * SKETCH_WIDTH];
+    private final long[] borrowsByMember = new long[SKETCH_DEPTH * SKETCH_WIDTH];
+    private final long[] borrowsByGenre = new long[Genre.values().length];
+    // Space-Saving counts merged over every bucket but the current one; rebuilt when the hour changes
+    private Map<String, Long> earlierTopIsbns;
+    private long windowBorrows;
+    private long windowReturns;
+
+    public CirculationStatistics() {
+        this(Clock.systemDefaultZone(), DEFAULT_WINDOW_HOURS, DEFAULT_TOP_K_CAPACITY);
+    }
+
+    public CirculationStatistics(Clock clock, int windowHours, int topKCapacity) {
+        if (windowHours < 1) {
+            throw new IllegalArgumentException("Window must be at least one hour");
+        }
+        if (topKCapacity < 1) {
+            throw new IllegalArgumentException("Top-K capacity must be at least 1");
+        }
+        this.clock = clock;
+        this.windowHours = windowHours;
+        this.topKCapacity = topKCapacity;
+        this.buckets = new Bucket[windowHours];
+        this.currentHour = hourNow();
+    }
+
+    public synchronized void recordBorrow(String memberId, Book book) {
+        Bucket bucket = advance();
+        bucket.borrows++;
+        bucket.borrowsByGenre[book.getGenre().ordinal()]++;
+        addToSketch(bucket.borrowsByIsbn, borrowsByIsbn, book.getIsbn());
+        addToSketch(bucket.borrowsByMember, borrowsByMember, memberId);
+        bucket.topIsbns.offer(book.getIsbn());
+
+        windowBorrows++;
+        borrowsByGenre[book.getGenre().ordinal()]++;
+    }
+
+    public synchronized void recordReturn(String memberId, Book book) {
+        advance().returns++;
+        windowReturns++;
+    }
+
+    public synchronized long getBorrowCount(String isbn) {
+        advance();
+        return estimate(borrowsByIsbn, isbn);
+    }
+
+    public synchronized long getMemberBorrowCount(String memberId) {
+        advance();
+        return estimate(borrowsByMember, memberId);
+    }
+
+    public synchronized Map<Genre, Long> getBorrowsByGenre() {
+        advance();
+        Map<Genre, Long> result = new EnumMap<>(Genre.class);
+        for (Genre genre : Genre.values()) {
+            result.put(genre, borrowsByGenre[genre.ordinal()]);
+        }
+        return result;
+    }
+
+    public synchronized Genre getBusiestGenre() {
+        advance();
+        Genre busiest = null;
+        for (Genre genre : Genre.values()) {
+            long count = borrowsByGenre[genre.ordinal()];
+            if (count > 0 && (busiest == null || count > borrowsByGenre[busiest.ordinal()])) {
+                busiest = genre;
+            }
+        }
+        return busiest;
+    }
+
+    public synchronized long getWindowBorrows() {
+        advance();
+        return windowBorrows;
+    }
+
+    public synchronized long getWindowReturns() {
+        advance();
+        return windowReturns;
+    }
+
+    // Borrow counts for the last n hours, oldest first
+    public synchronized long[] getHourlyBorrows(int hours) {
+        advance();
+        int n = Math.min(hours, windowHours);
+        long[] result = new long[n];
+        for (int i = 0; i < n; i++) {
+            Bucket bucket = buckets[slot(currentHour - n + 1 + i)];
+            result[i] = bucket != null ? bucket.borrows : 0;
+        }
+        return result;
+    }
+
+    // Most borrowed ISBNs in the window. The merged sketch of the earlier buckets is combined with the
+    // current bucket's, so a query touches at most twice the sketch capacity whatever the catalog size.
+    // Each count is the lower of the Space-Saving and Count-Min estimates, both of which only overcount.
+    // A book borrowed steadily but never among a single hour's top keys can be missed.
+    public synchronized List<Map.Entry<String, Long>> getTopBooks(int k) {
+        Bucket current = advance();
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+        if (earlierTopIsbns == null) {
+            earlierTopIsbns = mergeEarlierBuckets();
+        }
+        Map<String, Long> candidates = new HashMap<>(earlierTopIsbns);
+        current.topIsbns.counters.forEach((isbn, counter) -> candidates.merge(isbn, counter.count, Long::sum));
+        PriorityQueue<Map.Entry<String, Long>> top = new PriorityQueue<>(
+                Map.Entry.<String, Long>comparingByValue().thenComparing(Map.Entry::getKey, Comparator.reverseOrder()));
+        candidates.forEach((isbn, count) -> {
+            top.add(Map.entry(isbn, Math.min(count, estimate(borrowsByIsbn, isbn))));
+            if (top.size() > k) {
+                top.poll();
+            }
+        });
+        List<Map.Entry<String, Long>> result = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            result.add(top.poll());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    // Sums the Space-Saving counters of the buckets before the current hour and keeps the capacity largest
+    private Map<String, Long> mergeEarlierBuckets() {
+        Map<String, Long> merged = new HashMap<>();
+        for (Bucket bucket : buckets) {
+            if (bucket != null && bucket != buckets[slot(currentHour)]) {
+                bucket.topIsbns.counters.forEach((isbn, counter) -> merged.merge(isbn, counter.count, Long::sum));
+            }
+        }
+        if (merged.size() <= topKCapacity) {
+            return merged;
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(merged.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> kept = new HashMap<>();
+        for (Map.Entry<String, Long> entry : entries.subList(0, topKCapacity)) {
+            kept.put(entry.getKey(), entry.getValue());
+        }
+        return kept;
+    }
+
+    private static void addToSketch(int[] bucketCells, long[] windowCells, String key) {
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            int cell = cell(key, row);
+            bucketCells[cell]++;
+            windowCells[cell]++;
+        }
+    }
+
+    private static long estimate(long[] cells, String key) {
+        if (key == null) {
+            return 0;
+        }
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            min = Math.min(min, cells[cell(key, row)]);
+        }
+        return min;
+    }
+
+    // Each row scrambles the key's hash differently, so keys that share a cell in one row rarely share it in all
+    private static int cell(String key, int row) {
+        int h = key.hashCode() * 0x9E3779B9 + row * 0x7F4A7C15;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return row * SKETCH_WIDTH + (h & (SKETCH_WIDTH - 1));
+    }
+
+    private long hourNow() {
+        return Math.floorDiv(clock.millis(), MILLIS_PER_HOUR);
+    }
+
+    private int slot(long hour) {
+        return (int) Math.floorMod(hour, (long) windowHours);
+    }
+
+    // Moves the window forward to the current hour, retiring expired buckets from the running totals
+    private Bucket advance() {
+        long now = hourNow();
+        if (now > currentHour) {
+            long from = Math.max(currentHour + 1, now - windowHours + 1);
+            for (long hour = from; hour <= now; hour++) {
+                expire(buckets[slot(hour)]);
+                buckets[slot(hour)] = null;
+            }
+            currentHour = now;
+            earlierTopIsbns = null;
+        }
+        Bucket bucket = buckets[slot(currentHour)];
+        if (bucket == null) {
+            bucket = new Bucket(topKCapacity);
+            buckets[slot(currentHour)] = bucket;
+        }
+        return bucket;
+    }
+
+    private void expire(Bucket bucket) {
+        if (bucket == null) {
+            return;
+        }
+        windowBorrows -= bucket.borrows;
+        windowReturns -= bucket.returns;
+        for (int i = 0; i < borrowsByGenre.length; i++) {
+            borrowsByGenre[i] -= bucket.borrowsByGenre[i];
+        }
+        for (int i = 0; i < borrowsByIsbn.length; i++) {
+            borrowsByIsbn[i] -= bucket.borrowsByIsbn[i];
+            borrowsByMember[i] -= bucket.borrowsByMember[i];
+        }
+    }
+
+    private static class Bucket {
+        long borrows;
+        long returns;
+        final long[] borrowsByGenre = new long[Genre.values().length];
+        final int[] borrowsByIsbn = new int[SKETCH_DEPTH * SKETCH_WIDTH];
+        final int[] borrowsByMember = new int[SKETCH_DEPTH * SKETCH_WIDTH];
+        final SpaceSaving topIsbns;
+
+        Bucket(int topKCapacity) {
+            topIsbns = new SpaceSaving(topKCapacity);
+        }
+    }
+
+    // Space-Saving heavy hitters: tracks at most `capacity` keys, evicting the minimum on overflow
+    private static class SpaceSaving {
+        private final int capacity;
+        private final Map<String, Counter> counters = new HashMap<>();
+        private final TreeSet<Counter> byCount = new TreeSet<>(
+                Comparator.comparingLong((Counter c) -> c.count).thenComparing(c -> c.key));
+
+        SpaceSaving(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void offer(String key) {
+            Counter counter = counters.get(key);
+            if (counter == null) {
+                if (counters.size() < capacity) {
+                    counter = new Counter(key, 0);
+                } else {
+                    Counter min = byCount.pollFirst();
+                    counters.remove(min.key);
+                    counter = new Counter(key, min.count);
+                }
+                counters.put(key, counter);
+            } else {
+                byCount.remove(counter);
+            }
+            counter.count++;
+            byCount.add(counter);
+        }
+    }
+
+    private static class Counter {
+        final String key;
+        long count;
+
+        Counter(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+}
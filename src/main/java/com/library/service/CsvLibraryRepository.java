@@ -0,0 +1,66 @@
+package com.library.service;
+
+import com.library.model.Book;
+import com.library.model.Member;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The CSV snapshot files plus the delta log. Changes are appended to the delta log with an fsync, so
+ * this backend batches them up to save points rather than writing through.
+ */
+public class CsvLibraryRepository implements LibraryRepository {
+    private final FileService files;
+    private final String booksFile;
+    private final String membersFile;
+    private final String deltaFile;
+
+    public CsvLibraryRepository(FileService files, String booksFile, String membersFile, String deltaFile) {
+        this.files = files;
+        this.booksFile = booksFile;
+        this.membersFile = membersFile;
+        this.deltaFile = deltaFile;
+    }
+
+    @Override
+    public List<Book> loadBooks() {
+        return files.loadBooksFromFile(booksFile, deltaFile);
+    }
+
+    @Override
+    public List<Member> loadMembers() {
+        return files.loadMembersFromFile(membersFile, deltaFile);
+    }
+
+    @Override
+    public synchronized void apply(ChangeTracker.ChangeSet changes) throws IOException {
+        files.appendDelta(changes, deltaFile);
+    }
+
+    @Override
+    public boolean isWriteThrough() {
+        return false;
+    }
+
+    @Override
+    public boolean needsCompaction() {
+        return !new File(booksFile).exists() || !new File(membersFile).exists()
+                || files.deltaNeedsMerge(deltaFile, booksFile, membersFile);
+    }
+
+    // Each snapshot is replaced atomically, and the delta log is only cleared once both have been
+    // replaced; a failure leaves the old snapshots and the delta log as they were
+    @Override
+    public synchronized void compact(Collection<Book> books, Collection<Member> members) throws IOException {
+        files.saveBooksToFile(books.iterator(), booksFile);
+        files.saveMembersToFile(members.iterator(), membersFile);
+        files.clearDelta(deltaFile);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,922 @@
+package com.library.service;
+
+import com.library.model.Book;
+import com.library.model.CirculationEvent;
+import com.library.model.Genre;
+import com.library.model.Member;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Append-only log of circulation events, split into segment files of roughly fixed size. Each record
+ * is a varint length, a varint-encoded body and a CRC32C of the body; a torn record at the end of the
+ * last segment (a crash mid-append) is truncated on open. Appends return once their records are forced
+ * to disk; concurrent appenders share one fsync. New segments get their header under a temporary name,
+ * so a segment file is never seen without one.
+ *
+ * <p>A per-entity index maps every ISBN and member ID to the positions of its events, so history
+ * queries read only those records. Sealed segments keep their index in a side file and only the
+ * active segment is scanned on open. Snapshots of the projected state let {@link #replay()} start
+ * from the latest snapshot instead of the first event, and the recommender saved with each snapshot
+ * lets its rebuild do the same.
+ */
+public class EventStore implements Closeable {
+    private static final int SEGMENT_MAGIC = 0x4C4D5345;  // "LMSE"
+    private static final int INDEX_MAGIC = 0x4C4D5349;    // "LMSI"
+    private static final int SNAPSHOT_MAGIC = 0x4C4D5353; // "LMSS"
+    private static final int RECOMMENDATIONS_MAGIC = 0x4C4D5352; // "LMSR"
+    private static final String SNAPSHOT_PREFIX = "snapshot";
+    private static final String RECOMMENDATIONS_PREFIX = "recommendations";
+    private static final int HEADER_BYTES = 12;           // Magic + first sequence number
+    private static final int SNAPSHOTS_KEPT = 2;
+    public static final long DEFAULT_SEGMENT_BYTES = 8L << 20;
+    public static final long DEFAULT_SNAPSHOT_INTERVAL = 50_000;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long snapshotInterval;
+    private final List<Segment> segments = new ArrayList<>();
+    // Entity -> packed (segment number << 40 | offset) positions, in append order
+    private final Map<String, LongList> bookIndex = new HashMap<>();
+    private final Map<String, LongList> memberIndex = new HashMap<>();
+    // Entity -> offsets within the segment being written or scanned, for its index file when it is sealed
+    private final Map<String, LongList> segmentBooks = new LinkedHashMap<>();
+    private final Map<String, LongList> segmentMembers = new LinkedHashMap<>();
+    private final Buffer body = new Buffer();
+    private final CRC32C crc = new CRC32C();
+    // Held while forcing the log, never together with the store's own lock taken first
+    private final Object syncLock = new Object();
+    private FileOutputStream activeFile;
+    private OutputStream out;
+    private long activeSize;
+    private long nextSequence = 1;
+    private long lastSnapshotSequence = -1;
+    private volatile long syncedSequence;
+
+    public EventStore(String directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    public EventStore(String directory, long segmentBytes, long snapshotInterval) throws IOException {
+        if (segmentBytes < HEADER_BYTES + 1 || snapshotInterval < 1) {
+            throw new IllegalArgumentException("Segment size and snapshot interval must be positive");
+        }
+        this.directory = Paths.get(directory);
+        this.segmentBytes = segmentBytes;
+        this.snapshotInterval = snapshotInterval;
+        Files.createDirectories(this.directory);
+        open();
+    }
+
+    private void open() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.log*")) {
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    Files.delete(file); // A roll that did not finish
+                } else {
+                    segments.add(new Segment(file, firstSequence(file)));
+                }
+            }
+        }
+        segments.sort(Comparator.comparingLong(s -> s.firstSequence));
+        // Logs written before headers went through a temporary file can end in a segment cut off
+        // inside its header; it holds no events
+        if (!segments.isEmpty() && Files.size(segments.get(segments.size() - 1).file) < HEADER_BYTES) {
+            Files.delete(segments.remove(segments.size() - 1).file);
+        }
+        Path snapshot = latestSnapshot();
+        if (snapshot != null) {
+            lastSnapshotSequence = checkpointSequence(snapshot);
+            nextSequence = lastSnapshotSequence + 1;
+        }
+
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            boolean active = i == segments.size() - 1;
+            if (!active && loadIndex(i)) {
+                continue;
+            }
+            segmentBooks.clear();
+            segmentMembers.clear();
+            long end = scan(i, event -> {
+                indexEvent(event.event, event.position);
+                nextSequence = Math.max(nextSequence, event.event.sequence() + 1);
+            });
+            if (active) {
+                truncate(segment.file, end);
+                activeSize = end;
+            } else {
+                writeIndex(i);
+            }
+        }
+        if (!segments.isEmpty()) {
+            openActive(segments.get(segments.size() - 1).file);
+        }
+        syncedSequence = nextSequence - 1;
+    }
+
+    // True when there is neither a snapshot nor any event, i.e. the log has never been started
+    public synchronized boolean isEmpty() {
+        return lastSnapshotSequence < 0 && nextSequence == 1;
+    }
+
+    public synchronized long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    public CirculationEvent append(CirculationEvent event) {
+        try {
+            CirculationEvent stamped;
+            synchronized (this) {
+                stamped = write(event);
+            }
+            syncThrough(stamped.sequence());
+            return stamped;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to event log: " + e.getMessage(), e);
+        }
+    }
+
+    // Appends a batch with a single fsync at the end
+    public void appendAll(Collection<CirculationEvent> events) {
+        try {
+            long last;
+            synchronized (this) {
+                for (CirculationEvent event : events) {
+                    write(event);
+                }
+                last = nextSequence - 1;
+            }
+            syncThrough(last);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to event log: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns once every event up to the sequence number is on disk. Appenders that arrive while a sync
+     * is running wait for it and then find their events covered by it, or run one sync for all of them.
+     */
+    private void syncThrough(long sequence) throws IOException {
+        synchronized (syncLock) {
+            if (syncedSequence >= sequence) {
+                return;
+            }
+            FileOutputStream file;
+            long written;
+            synchronized (this) {
+                if (out == null) {
+                    return; // Closed, which forced everything written
+                }
+                out.flush();
+                file = activeFile;
+                written = nextSequence - 1;
+            }
+            // Outside the store's lock, so appends carry on while the disk catches up
+            try {
+                file.getFD().sync();
+            } catch (SyncFailedException e) {
+                synchronized (this) {
+                    if (activeFile == file && out != null) {
+                        throw e;
+                    }
+                }
+                // A roll or close() forced and closed the file first, events up to written included
+            }
+            syncedSequence = written;
+        }
+    }
+
+    private CirculationEvent write(CirculationEvent event) throws IOException {
+        if (out == null && !segments.isEmpty() && activeSize < segmentBytes) {
+            // Appending after close(): carry on in the active segment
+            openActive(segments.get(segments.size() - 1).file);
+        } else if (out == null || activeSize >= segmentBytes) {
+            roll();
+        }
+        CirculationEvent stamped = event.stamped(nextSequence, System.currentTimeMillis());
+        body.reset();
+        encode(stamped, body);
+        crc.reset();
+        crc.update(body.array(), 0, body.size());
+
+        long position = position(segments.size() - 1, activeSize);
+        int start = writeVarint(out, body.size());
+        body.writeTo(out);
+        writeInt(out, (int) crc.getValue());
+        activeSize += start + body.size() + 4;
+        nextSequence++;
+        indexEvent(stamped, position);
+        return stamped;
+    }
+
+    /**
+     * Seals the active segment with an index file and starts a new one at the next sequence number. The
+     * new segment's header is written and forced under a temporary name before it takes the segment's
+     * name, and nothing changes when that fails.
+     */
+    private void roll() throws IOException {
+        Path file = directory.resolve(String.format("segment-%020d.log", nextSequence));
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream headerFile = new FileOutputStream(temp.toFile())) {
+                DataOutputStream header = new DataOutputStream(headerFile);
+                header.writeInt(SEGMENT_MAGIC);
+                header.writeLong(nextSequence);
+                header.flush();
+                headerFile.getFD().sync();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        if (!segments.isEmpty()) {
+            if (out != null) {
+                // The appenders waiting on this segment are covered by this force
+                out.flush();
+                activeFile.getFD().sync();
+                out.close();
+                out = null;
+            }
+            writeIndex(segments.size() - 1);
+        }
+        segments.add(new Segment(file, nextSequence));
+        openActive(file);
+        activeSize = HEADER_BYTES;
+    }
+
+    private void openActive(Path file) throws IOException {
+        activeFile = new FileOutputStream(file.toFile(), true);
+        out = new BufferedOutputStream(activeFile);
+    }
+
+    // Makes renames in the log directory durable
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Some platforms cannot open a directory; their renames are as durable as they get
+        }
+    }
+
+    public synchronized List<CirculationEvent> bookHistory(String isbn) throws IOException {
+        return read(bookIndex.get(isbn));
+    }
+
+    public synchronized List<CirculationEvent> memberHistory(String memberId) throws IOException {
+        return read(memberIndex.get(memberId));
+    }
+
+    private List<CirculationEvent> read(LongList positions) throws IOException {
+        if (positions == null) {
+            return Collections.emptyList();
+        }
+        if (out != null) {
+            out.flush();
+        }
+        List<CirculationEvent> events = new ArrayList<>(positions.size);
+        RandomAccessFile file = null;
+        int openSegment = -1;
+        try {
+            for (int i = 0; i < positions.size; i++) {
+                int segment = (int) (positions.values[i] >>> 40);
+                if (segment != openSegment) {
+                    if (file != null) file.close();
+                    file = new RandomAccessFile(segments.get(segment).file.toFile(), "r");
+                    openSegment = segment;
+                }
+                file.seek(positions.values[i] & 0xFF_FFFF_FFFFL);
+                byte[] record = new byte[readVarint(file)];
+                file.readFully(record);
+                events.add(decode(new Reader(record)));
+            }
+        } finally {
+            if (file != null) file.close();
+        }
+        return events;
+    }
+
+    // Visits every intact event in the log, oldest first
+    public void forEachEvent(Consumer<CirculationEvent> action) throws IOException {
+        forEachEvent(0, action);
+    }
+
+    // Visits every intact event after the sequence number, oldest first, skipping segments that end before it
+    public synchronized void forEachEvent(long afterSequence, Consumer<CirculationEvent> action) throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+        for (int i = firstSegmentAfter(afterSequence); i < segments.size(); i++) {
+            scan(i, event -> {
+                if (event.event.sequence() > afterSequence) {
+                    action.accept(event.event);
+                }
+            });
+        }
+    }
+
+    // The first segment that can hold events after the sequence number
+    private int firstSegmentAfter(long sequence) {
+        int first = 0;
+        while (first + 1 < segments.size() && segments.get(first + 1).firstSequence <= sequence + 1) {
+            first++;
+        }
+        return first;
+    }
+
+    private void indexEvent(CirculationEvent event, long position) {
+        if (event.isbn() != null) {
+            index(bookIndex, segmentBooks, event.isbn(), position);
+        }
+        if (event.memberId() != null) {
+            index(memberIndex, segmentMembers, event.memberId(), position);
+        }
+        for (String isbn : event.loans().keySet()) {
+            index(bookIndex, segmentBooks, isbn, position);
+        }
+    }
+
+    private static void index(Map<String, LongList> all, Map<String, LongList> segment, String key, long position) {
+        all.computeIfAbsent(key, k -> new LongList()).add(position);
+        segment.computeIfAbsent(key, k -> new LongList()).add(position & 0xFF_FFFF_FFFFL);
+    }
+
+    // Snapshots
+
+    public synchronized boolean isSnapshotDue() {
+        return getLastSequence() - Math.max(lastSnapshotSequence, 0) >= snapshotInterval;
+    }
+
+    /**
+     * Writes the projected state as of the last appended event, and the recommender alongside it unless
+     * it is null. The caller must hold the state still while this runs, so it is taken on the thread
+     * that makes the changes.
+     */
+    public synchronized void writeSnapshot(Collection<Book> books, Collection<Member> members,
+                                           RecommendationService recommendations) throws IOException {
+        long sequence = getLastSequence();
+        writeChecked(checkpointFile(SNAPSHOT_PREFIX, sequence), SNAPSHOT_MAGIC, sequence, snapshot -> {
+            writeVarint(snapshot, books.size());
+            for (Book book : books) {
+                writeString(snapshot, book.getIsbn());
+                writeString(snapshot, book.getTitle());
+                writeString(snapshot, book.getAuthor());
+                writeVarint(snapshot, book.getPublicationYear());
+                writeString(snapshot, book.getGenre().name());
+            }
+            writeVarint(snapshot, members.size());
+            for (Member member : members) {
+                writeString(snapshot, member.getMemberId());
+                writeString(snapshot, member.getName());
+                writeLoans(snapshot, member.getBorrowedBooks());
+            }
+        });
+        if (recommendations != null) {
+            writeChecked(checkpointFile(RECOMMENDATIONS_PREFIX, sequence), RECOMMENDATIONS_MAGIC, sequence,
+                    recommendations::writeTo);
+        }
+        syncDirectory();
+        lastSnapshotSequence = sequence;
+
+        for (String prefix : List.of(SNAPSHOT_PREFIX, RECOMMENDATIONS_PREFIX)) {
+            List<Path> kept = checkpoints(prefix);
+            for (int i = 0; i < kept.size() - SNAPSHOTS_KEPT; i++) {
+                Files.deleteIfExists(kept.get(i));
+            }
+        }
+    }
+
+    /**
+     * The recommender saved with the latest snapshot that has a readable one, and the sequence number
+     * it was saved at; null when there is none. Its rebuild goes on from the events after that number.
+     */
+    public synchronized SavedRecommendations readRecommendations() throws IOException {
+        List<Path> saved = checkpoints(RECOMMENDATIONS_PREFIX);
+        for (int i = saved.size() - 1; i >= 0; i--) {
+            long sequence = checkpointSequence(saved.get(i));
+            byte[] bytes = sequence <= getLastSequence() ? readChecked(saved.get(i), RECOMMENDATIONS_MAGIC) : null;
+            if (bytes != null) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, HEADER_BYTES,
+                        bytes.length - HEADER_BYTES - 4));
+                return new SavedRecommendations(sequence, RecommendationService.readFrom(in));
+            }
+        }
+        return null;
+    }
+
+    // Writes magic, sequence number, body and a CRC32C of all of it under a temporary name, forces the
+    // file and renames it into place
+    private void writeChecked(Path file, int magic, long sequence, CheckpointBody body) throws IOException {
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        CRC32C checksum = new CRC32C();
+        try (FileOutputStream target = new FileOutputStream(temp.toFile());
+             DataOutputStream checkpoint = new DataOutputStream(new BufferedOutputStream(
+                     new CheckedOutputStream(target, checksum), 1 << 16))) {
+            checkpoint.writeInt(magic);
+            checkpoint.writeLong(sequence);
+            body.write(checkpoint);
+            checkpoint.flush();
+            checkpoint.writeInt((int) checksum.getValue());
+            checkpoint.flush();
+            target.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The file's bytes if its checksum and magic number are right, otherwise null
+    private static byte[] readChecked(Path file, int magic) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < HEADER_BYTES + 4) {
+            return null;
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(bytes, 0, bytes.length - 4);
+        Reader reader = new Reader(bytes);
+        reader.position = bytes.length - 4;
+        if (reader.readInt() != (int) checksum.getValue()) {
+            System.err.println("Skipping corrupt snapshot: " + file.getFileName());
+            return null;
+        }
+        reader.position = 0;
+        return reader.readInt() == magic ? bytes : null;
+    }
+
+    /**
+     * Rebuilds the current state from the latest readable snapshot plus the events after it. Events
+     * that no longer apply (a borrow of a removed book, say) are skipped, as the live service would
+     * have rejected them.
+     */
+    public synchronized Projection replay() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+        Projection projection = new Projection();
+        List<Path> snapshots = checkpoints(SNAPSHOT_PREFIX);
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            Projection loaded = readSnapshot(snapshots.get(i));
+            if (loaded != null) {
+                projection = loaded;
+                break;
+            }
+        }
+
+        Projection target = projection;
+        for (int i = firstSegmentAfter(projection.sequence); i < segments.size(); i++) {
+            scan(i, event -> {
+                if (event.event.sequence() > target.sequence) {
+                    target.apply(event.event);
+                }
+            });
+        }
+        return projection;
+    }
+
+    private Projection readSnapshot(Path file) throws IOException {
+        byte[] bytes = readChecked(file, SNAPSHOT_MAGIC);
+        if (bytes == null) {
+            return null;
+        }
+        Reader reader = new Reader(bytes);
+        reader.position = 4;
+        Projection projection = new Projection();
+        projection.sequence = reader.readLong();
+        for (int i = reader.readVarint(); i > 0; i--) {
+            String isbn = reader.readString();
+            Book book = new Book(reader.readString(), reader.readString(), isbn, reader.readVarint(),
+                    Genre.valueOf(reader.readString()));
+            projection.books.put(isbn, book);
+        }
+        for (int i = reader.readVarint(); i > 0; i--) {
+            Member member = new Member(reader.readString(), reader.readString());
+            reader.readLoans().forEach(member::borrowBook);
+            projection.members.put(member.getMemberId(), member);
+        }
+        return projection;
+    }
+
+    // Snapshot or saved recommender files, oldest first
+    private List<Path> checkpoints(String prefix) throws IOException {
+        List<Path> checkpoints = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "-*.snap")) {
+            files.forEach(checkpoints::add);
+        }
+        checkpoints.sort(Comparator.comparingLong(EventStore::checkpointSequence));
+        return checkpoints;
+    }
+
+    private Path latestSnapshot() throws IOException {
+        List<Path> snapshots = checkpoints(SNAPSHOT_PREFIX);
+        return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+    }
+
+    private Path checkpointFile(String prefix, long sequence) {
+        return directory.resolve(String.format("%s-%020d.snap", prefix, sequence));
+    }
+
+    private static long checkpointSequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(name.lastIndexOf('-') + 1, name.length() - ".snap".length()));
+    }
+
+    // Segment files and their side indexes
+
+    // Reads every intact record of a segment and returns the offset just past the last one
+    private long scan(int segmentNumber, EventVisitor visitor) throws IOException {
+        Segment segment = segments.get(segmentNumber);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(segment.file.toFile()), 1 << 16))) {
+            if (in.readInt() != SEGMENT_MAGIC) {
+                throw new IOException("Not an event log segment: " + segment.file);
+            }
+            in.readLong();
+            long offset = HEADER_BYTES;
+            while (true) {
+                int length;
+                byte[] record;
+                int stored;
+                try {
+                    int first = in.read();
+                    if (first < 0) break;
+                    length = readVarint(in, first);
+                    record = new byte[length];
+                    in.readFully(record);
+                    stored = in.readInt();
+                } catch (EOFException e) {
+                    break; // Torn tail
+                }
+                crc.reset();
+                crc.update(record, 0, record.length);
+                if ((int) crc.getValue() != stored) {
+                    System.err.println("Event log record failed its checksum in " + segment.file.getFileName()
+                            + " at offset " + offset + "; ignoring the rest of the segment");
+                    break;
+                }
+                visitor.visit(new Positioned(decode(new Reader(record)), position(segmentNumber, offset)));
+                offset += varintSize(length) + length + 4;
+            }
+            return offset;
+        }
+    }
+
+    // Writes the sealed segment's entries, collected while it was written or scanned, and starts afresh
+    private void writeIndex(int segmentNumber) throws IOException {
+        Segment segment = segments.get(segmentNumber);
+        Path file = indexFile(segment);
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp.toFile())))) {
+            index.writeInt(INDEX_MAGIC);
+            writeIndexEntries(index, segmentBooks);
+            writeIndexEntries(index, segmentMembers);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        segmentBooks.clear();
+        segmentMembers.clear();
+    }
+
+    // Offsets only, delta-encoded; the segment number is implied by the file
+    private static void writeIndexEntries(DataOutputStream index, Map<String, LongList> inSegment) throws IOException {
+        writeVarint(index, inSegment.size());
+        for (Map.Entry<String, LongList> entry : inSegment.entrySet()) {
+            writeString(index, entry.getKey());
+            LongList offsets = entry.getValue();
+            writeVarint(index, offsets.size);
+            long previous = 0;
+            for (int i = 0; i < offsets.size; i++) {
+                writeVarlong(index, offsets.values[i] - previous);
+                previous = offsets.values[i];
+            }
+        }
+    }
+
+    private boolean loadIndex(int segmentNumber) throws IOException {
+        Segment segment = segments.get(segmentNumber);
+        Path file = indexFile(segment);
+        if (!Files.exists(file)) {
+            return false;
+        }
+        Reader reader = new Reader(Files.readAllBytes(file));
+        if (reader.readInt() != INDEX_MAGIC) {
+            return false;
+        }
+        readIndexEntries(reader, bookIndex, segmentNumber);
+        readIndexEntries(reader, memberIndex, segmentNumber);
+        // A sealed segment ends where the next one starts
+        nextSequence = Math.max(nextSequence, segments.get(segmentNumber + 1).firstSequence);
+        return true;
+    }
+
+    private static void readIndexEntries(Reader reader, Map<String, LongList> entities, int segmentNumber) {
+        for (int i = reader.readVarint(); i > 0; i--) {
+            LongList positions = entities.computeIfAbsent(reader.readString(), k -> new LongList());
+            long offset = 0;
+            for (int j = reader.readVarint(); j > 0; j--) {
+                offset += reader.readVarlong();
+                positions.add(position(segmentNumber, offset));
+            }
+        }
+    }
+
+    private static Path indexFile(Segment segment) {
+        String name = segment.file.getFileName().toString();
+        return segment.file.resolveSibling(name.substring(0, name.length() - ".log".length()) + ".idx");
+    }
+
+    private static long firstSequence(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring("segment-".length(), name.length() - ".log".length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected file in event log directory: " + name);
+        }
+    }
+
+    private static void truncate(Path file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (raf.length() > length) {
+                System.err.println("Truncating torn event log tail in " + file.getFileName());
+                raf.setLength(length);
+            }
+        }
+    }
+
+    private static long position(int segmentNumber, long offset) {
+        return ((long) segmentNumber << 40) | offset;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.flush();
+            activeFile.getFD().sync();
+            out.close();
+            out = null;
+            syncedSequence = nextSequence - 1;
+        }
+    }
+
+    // Record encoding: type, sequence and timestamp, then the fields of that type
+
+    private static void encode(CirculationEvent event, OutputStream out) throws IOException {
+        out.write(event.type().ordinal());
+        writeVarlong(out, event.sequence());
+        writeVarlong(out, event.timestamp());
+        switch (event.type()) {
+            case BOOK_ADDED, BOOK_UPDATED -> {
+                Book book = event.book();
+                writeString(out, book.getIsbn());
+                writeString(out, book.getTitle());
+                writeString(out, book.getAuthor());
+                writeVarint(out, book.getPublicationYear());
+                writeString(out, book.getGenre().name());
+            }
+            case BOOK_REMOVED -> writeString(out, event.isbn());
+            case MEMBER_ADDED -> {
+                writeString(out, event.memberId());
+                writeString(out, event.memberName());
+                writeLoans(out, event.loans());
+            }
+            case BORROWED -> {
+                writeString(out, event.memberId());
+                writeString(out, event.isbn());
+                writeVarlong(out, event.dueDate().toEpochDay());
+            }
+            case RETURNED -> {
+                writeString(out, event.memberId());
+                writeString(out, event.isbn());
+            }
+        }
+    }
+
+    private static CirculationEvent decode(Reader in) {
+        CirculationEvent.Type type = CirculationEvent.Type.values()[in.readByte()];
+        long sequence = in.readVarlong();
+        long timestamp = in.readVarlong();
+        CirculationEvent event = switch (type) {
+            case BOOK_ADDED -> {
+                String isbn = in.readString();
+                Book book = new Book(in.readString(), in.readString(), isbn, in.readVarint(), Genre.valueOf(in.readString()));
+                yield CirculationEvent.bookAdded(book);
+            }
+            case BOOK_UPDATED -> {
+                String isbn = in.readString();
+                Book book = new Book(in.readString(), in.readString(), isbn, in.readVarint(), Genre.valueOf(in.readString()));
+                yield CirculationEvent.bookUpdated(book);
+            }
+            case BOOK_REMOVED -> CirculationEvent.bookRemoved(in.readString());
+            case MEMBER_ADDED -> {
+                Member member = new Member(in.readString(), in.readString());
+                in.readLoans().forEach(member::borrowBook);
+                yield CirculationEvent.memberAdded(member);
+            }
+            case BORROWED -> CirculationEvent.borrowed(in.readString(), in.readString(), LocalDate.ofEpochDay(in.readVarlong()));
+            case RETURNED -> CirculationEvent.returned(in.readString(), in.readString());
+        };
+        return event.stamped(sequence, timestamp);
+    }
+
+    private static void writeLoans(OutputStream out, Map<String, LocalDate> loans) throws IOException {
+        writeVarint(out, loans.size());
+        for (Map.Entry<String, LocalDate> loan : loans.entrySet()) {
+            writeString(out, loan.getKey());
+            writeVarlong(out, loan.getValue().toEpochDay());
+        }
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    // Unsigned LEB128; returns the number of bytes written
+    private static int writeVarint(OutputStream out, int value) throws IOException {
+        return writeVarlong(out, value & 0xFFFF_FFFFL);
+    }
+
+    private static int writeVarlong(OutputStream out, long value) throws IOException {
+        int written = 1;
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+            written++;
+        }
+        out.write((int) value);
+        return written;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        for (long v = value & 0xFFFF_FFFFL; (v & ~0x7FL) != 0; v >>>= 7) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static int readVarint(DataInput in) throws IOException {
+        return readVarint(in, in.readUnsignedByte());
+    }
+
+    private static int readVarint(DataInput in, int first) throws IOException {
+        int value = first & 0x7F;
+        int shift = 7;
+        for (int b = first; (b & 0x80) != 0; shift += 7) {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    private interface CheckpointBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** A recommender read back from disk and the sequence number of the last event it includes. */
+    public record SavedRecommendations(long sequence, RecommendationService recommendations) {
+    }
+
+    private interface EventVisitor {
+        void visit(Positioned event) throws IOException;
+    }
+
+    private record Positioned(CirculationEvent event, long position) {
+    }
+
+    private record Segment(Path file, long firstSequence) {
+    }
+
+    /** State rebuilt from the log: the catalog and the members with their current loans. */
+    public static class Projection {
+        private final Map<String, Book> books = new LinkedHashMap<>();
+        private final Map<String, Member> members = new LinkedHashMap<>();
+        private long sequence;
+
+        void apply(CirculationEvent event) {
+            switch (event.type()) {
+                case BOOK_ADDED -> books.putIfAbsent(event.isbn(), event.book());
+                case BOOK_REMOVED -> books.remove(event.isbn());
+                case BOOK_UPDATED -> books.replace(event.isbn(), event.book());
+                case MEMBER_ADDED -> {
+                    Member member = new Member(event.memberId(), event.memberName());
+                    event.loans().forEach(member::borrowBook);
+                    members.putIfAbsent(event.memberId(), member);
+                }
+                case BORROWED -> {
+                    Member member = members.get(event.memberId());
+                    if (member != null && books.containsKey(event.isbn())) {
+                        member.borrowBook(event.isbn(), event.dueDate());
+                    }
+                }
+                case RETURNED -> {
+                    Member member = members.get(event.memberId());
+                    if (member != null) {
+                        member.returnBook(event.isbn());
+                    }
+                }
+            }
+            sequence = event.sequence();
+        }
+
+        public Collection<Book> getBooks() {
+            return books.values();
+        }
+
+        public Collection<Member> getMembers() {
+            return members.values();
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    private static class Buffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readByte() {
+            return bytes[position++] & 0xFF;
+        }
+
+        int readInt() {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFF_FFFFL);
+        }
+
+        int readVarint() {
+            return (int) readVarlong();
+        }
+
+        long readVarlong() {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        String readString() {
+            int length = readVarint();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        Map<String, LocalDate> readLoans() {
+            Map<String, LocalDate> loans = new LinkedHashMap<>();
+            for (int i = readVarint(); i > 0; i--) {
+                loans.put(readString(), LocalDate.ofEpochDay(readVarlong()));
+            }
+            return loans;
+        }
+    }
+
+    private static class LongList {
+        long[] values = new long[2];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package com.library.service;
+
+public enum ExportFormat {
+    CSV, BINARY, JSON_LINES
+}
@@ -5,11 +5,21 @@ import com.library.model.Member;
 import com.library.model.Genre;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Consumer;
 import java.nio.file.*;
 
 public class FileService {
     private static final String DATA_DIR = "data";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BINARY_MAGIC = 0x4C4D5301; // "LMS" + format version 1
+    // Saves to files with this extension are block-compressed; loads detect compression from the file itself
+    public static final String COMPRESSED_EXTENSION = ".csvz";
     
     public FileService() {
         ensureDataDirectoryExists();
@@ -23,27 +33,77 @@ public class FileService {
     }
     
     public void saveBooksToFile(List<Book> books, String filename) {
-        ensureFileExists(filename, "title,author,isbn,year,genre");
-        
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            // Write header
-            writer.println("title,author,isbn,year,genre");
-            
-            // Write book data
-            for (Book book : books) {
-                writer.println(String.format("\"%s\",\"%s\",%s,%d,%s",
-                        book.getTitle().replace("\"", "\"\""),
-                        book.getAuthor().replace("\"", "\"\""),
-                        book.getIsbn(),
-                        book.getPublicationYear(),
-                        book.getGenre()));
-            }
+        try {
+            saveBooksToFile(books.iterator(), filename);
         } catch (IOException e) {
             System.err.println("Error saving books to file: " + e.getMessage());
             e.printStackTrace();
         }
     }
     
+    // Streams books straight from the iterator to disk, so no copy of the catalog is held. The previous
+    // file stays in place until the new one is complete.
+    public long saveBooksToFile(Iterator<Book> books, String filename) throws IOException {
+        return replaceFile(filename, out -> exportBooks(books, out, ExportFormat.CSV));
+    }
+    
+    public long exportBooks(Iterator<Book> books, WritableByteChannel channel, ExportFormat format) throws IOException {
+        return exportBooks(books, Channels.newOutputStream(channel), format);
+    }
+    
+    /**
+     * Writes books to the stream one record at a time through a fixed-size buffer. Writes block
+     * while the destination is full, which throttles the iterator. The stream is flushed but not closed.
+     */
+    public long exportBooks(Iterator<Book> books, OutputStream out, ExportFormat format) throws IOException {
+        long count = 0;
+        if (format == ExportFormat.BINARY) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+            data.writeInt(BINARY_MAGIC);
+            while (books.hasNext()) {
+                Book book = books.next();
+                data.writeBoolean(true);
+                data.writeUTF(book.getTitle());
+                data.writeUTF(book.getAuthor());
+                data.writeUTF(book.getIsbn());
+                data.writeInt(book.getPublicationYear());
+                data.writeByte(book.getGenre().ordinal());
+                count++;
+            }
+            data.writeBoolean(false);
+            data.flush();
+            return count;
+        }
+        
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        if (format == ExportFormat.CSV) {
+            writer.write("title,author,isbn,year,genre\n");
+        }
+        while (books.hasNext()) {
+            Book book = books.next();
+            if (format == ExportFormat.CSV) {
+                writer.append('"').append(book.getTitle().replace("\"", "\"\"")).append("\",\"")
+                        .append(book.getAuthor().replace("\"", "\"\"")).append("\",")
+                        .append(book.getIsbn()).append(',');
+                appendInt(writer, book.getPublicationYear());
+                writer.append(',').append(book.getGenre().name()).append('\n');
+            } else {
+                writer.append("{\"title\":");
+                appendJsonString(writer, book.getTitle());
+                writer.append(",\"author\":");
+                appendJsonString(writer, book.getAuthor());
+                writer.append(",\"isbn\":");
+                appendJsonString(writer, book.getIsbn());
+                writer.append(",\"year\":");
+                appendInt(writer, book.getPublicationYear());
+                writer.append(",\"genre\":\"").append(book.getGenre().name()).append("\"}\n");
+            }
+            count++;
+        }
+        writer.flush();
+        return count;
+    }
+    
     public List<Book> loadBooksFromFile(String filename) {
         List<Book> books = new ArrayList<>();
         
@@ -51,7 +111,7 @@ public class FileService {
             return books; // Return empty list if file doesn't exist
         }
         
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+        try (BufferedReader reader = openReader(filename)) {
             // Skip header
             String line = reader.readLine();
             if (line == null || !line.startsWith("title,author")) {
@@ -64,17 +124,10 @@ public class FileService {
                 if (line.isEmpty()) continue;
                 
                 try {
-                    // Simple CSV parsing (handles quoted fields with commas)
-                    String[] parts = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
-                    if (parts.length != 5) continue;
-                    
-                    String title = parts[0].replaceAll("^\"|\"$", "");
-                    String author = parts[1].replaceAll("^\"|\"$", "");
-                    String isbn = parts[2].replaceAll("^\"|\"$", "");
-                    int year = Integer.parseInt(parts[3]);
-                    Genre genre = Genre.valueOf(parts[4]);
-                    
-                    books.add(new Book(title, author, isbn, year, genre));
+                    Book book = parseBookLine(line);
+                    if (book != null) {
+                        books.add(book);
+                    }
                 } catch (Exception e) {
                     System.err.println("Error parsing line: " + line);
                     e.printStackTrace();
@@ -88,23 +141,101 @@ public class FileService {
         return books;
     }
     
-    public void saveMembersToFile(List<Member> members, String filename) {
-        ensureFileExists(filename, "memberId,name,borrowedBooks");
+    // Loads the base snapshot and replays the book records of the delta log over it
+    public List<Book> loadBooksFromFile(String filename, String deltaFilename) {
+        Map<String, Book> books = new LinkedHashMap<>();
+        for (Book book : loadBooksFromFile(filename)) {
+            books.put(book.getIsbn(), book);
+        }
+        replayDelta(deltaFilename, "B", line -> {
+            Book book = parseBookLine(line);
+            if (book != null) books.put(book.getIsbn(), book);
+        }, books::remove);
+        return new ArrayList<>(books.values());
+    }
+    
+    static Book parseBookLine(String line) {
+        List<String> parts = splitCsvLine(line);
+        if (parts.size() != 5) return null;
         
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            // Write header
-            writer.println("memberId,name,borrowedBooks");
-            
-            // Write member data
-            for (Member member : members) {
-                writer.println(member.toCsvString());
-            }
+        String title = parts.get(0);
+        String author = parts.get(1);
+        String isbn = parts.get(2);
+        int year = Integer.parseInt(parts.get(3));
+        Genre genre = Genre.valueOf(parts.get(4));
+        
+        return new Book(title, author, isbn, year, genre);
+    }
+    
+    public void saveMembersToFile(List<Member> members, String filename) {
+        try {
+            saveMembersToFile(members.iterator(), filename);
         } catch (IOException e) {
             System.err.println("Error saving members to file: " + e.getMessage());
             e.printStackTrace();
         }
     }
     
+    public long saveMembersToFile(Iterator<Member> members, String filename) throws IOException {
+        return replaceFile(filename, out -> exportMembers(members, out, ExportFormat.CSV));
+    }
+    
+    public long exportMembers(Iterator<Member> members, WritableByteChannel channel, ExportFormat format) throws IOException {
+        return exportMembers(members, Channels.newOutputStream(channel), format);
+    }
+    
+    public long exportMembers(Iterator<Member> members, OutputStream out, ExportFormat format) throws IOException {
+        long count = 0;
+        if (format == ExportFormat.BINARY) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+            data.writeInt(BINARY_MAGIC);
+            while (members.hasNext()) {
+                Member member = members.next();
+                Map<String, LocalDate> borrowed = member.getBorrowedBooks();
+                data.writeBoolean(true);
+                data.writeUTF(member.getMemberId());
+                data.writeUTF(member.getName());
+                data.writeShort(borrowed.size());
+                for (Map.Entry<String, LocalDate> entry : borrowed.entrySet()) {
+                    data.writeUTF(entry.getKey());
+                    data.writeLong(entry.getValue().toEpochDay());
+                }
+                count++;
+            }
+            data.writeBoolean(false);
+            data.flush();
+            return count;
+        }
+        
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        if (format == ExportFormat.CSV) {
+            writer.write("memberId,name,borrowedBooks\n");
+        }
+        while (members.hasNext()) {
+            Member member = members.next();
+            if (format == ExportFormat.CSV) {
+                writer.append(member.toCsvString()).append('\n');
+            } else {
+                writer.append("{\"memberId\":");
+                appendJsonString(writer, member.getMemberId());
+                writer.append(",\"name\":");
+                appendJsonString(writer, member.getName());
+                writer.append(",\"borrowedBooks\":{");
+                boolean first = true;
+                for (Map.Entry<String, LocalDate> entry : member.getBorrowedBooks().entrySet()) {
+                    if (!first) writer.append(',');
+                    appendJsonString(writer, entry.getKey());
+                    writer.append(":\"").append(entry.getValue().toString()).append('"');
+                    first = false;
+                }
+                writer.append("}}\n");
+            }
+            count++;
+        }
+        writer.flush();
+        return count;
+    }
+    
     public List<Member> loadMembersFromFile(String filename) {
         List<Member> members = new ArrayList<>();
         
@@ -112,7 +243,7 @@ public class FileService {
             return members; // Return empty list if file doesn't exist
         }
         
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+        try (BufferedReader reader = openReader(filename)) {
             // Skip header
             String line = reader.readLine();
             if (line == null || !line.startsWith("memberId,name")) {
@@ -142,24 +273,253 @@ public class FileService {
         return members;
     }
     
-    private boolean fileExists(String filename) {
-        File file = new File(filename);
-        return file.exists() && file.length() > 0;
+    public List<Member> loadMembersFromFile(String filename, String deltaFilename) {
+        Map<String, Member> members = new LinkedHashMap<>();
+        for (Member member : loadMembersFromFile(filename)) {
+            members.put(member.getMemberId(), member);
+        }
+        replayDelta(deltaFilename, "M", line -> {
+            Member member = Member.fromCsv(line);
+            members.put(member.getMemberId(), member);
+        }, members::remove);
+        return new ArrayList<>(members.values());
     }
     
-    private void ensureFileExists(String filename, String header) {
-        File file = new File(filename);
-        if (!file.exists()) {
-            try {
-                file.createNewFile();
-                if (header != null && !header.isEmpty()) {
-                    try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
-                        writer.println(header);
+    /**
+     * Appends changed records to the delta log as "B+,csv" / "B-,isbn" and "M+,csv" / "M-,id" lines
+     * and syncs the file, so the cost of a save is proportional to the number of changes.
+     */
+    public void appendDelta(ChangeTracker.ChangeSet changes, String deltaFilename) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(deltaFilename, true)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            appendDeltaLines(writer, "B", changes.books());
+            appendDeltaLines(writer, "M", changes.members());
+            writer.flush();
+            out.getFD().sync();
+        }
+    }
+    
+    // True once the delta log has grown past a quarter of the base snapshots, when a full save pays off
+    public boolean deltaNeedsMerge(String deltaFilename, String... baseFilenames) {
+        long baseSize = 0;
+        for (String filename : baseFilenames) {
+            baseSize += new File(filename).length();
+        }
+        return new File(deltaFilename).length() > baseSize / 4;
+    }
+    
+    public void clearDelta(String deltaFilename) {
+        File delta = new File(deltaFilename);
+        if (delta.exists() && !delta.delete()) {
+            System.err.println("Error deleting delta file: " + deltaFilename);
+        }
+    }
+    
+    private static void appendDeltaLines(Writer writer, String kind, Map<String, String> records) throws IOException {
+        for (Map.Entry<String, String> entry : records.entrySet()) {
+            if (entry.getValue() != null) {
+                writer.append(kind).append("+,").append(entry.getValue()).append('\n');
+            } else {
+                writer.append(kind).append("-,").append(entry.getKey()).append('\n');
+            }
+        }
+    }
+    
+    private void replayDelta(String deltaFilename, String kind, Consumer<String> upsert,
+                             Consumer<String> remove) {
+        if (deltaFilename == null || !fileExists(deltaFilename)) {
+            return;
+        }
+        
+        try (BufferedReader reader = openReader(deltaFilename)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 3 || !line.startsWith(kind)) continue;
+                
+                try {
+                    if (line.startsWith(kind + "+,")) {
+                        upsert.accept(line.substring(3));
+                    } else if (line.startsWith(kind + "-,")) {
+                        remove.accept(line.substring(3));
                     }
+                } catch (Exception e) {
+                    System.err.println("Error replaying delta line: " + line);
                 }
-            } catch (IOException e) {
-                System.err.println("Error creating file " + filename + ": " + e.getMessage());
             }
+        } catch (IOException e) {
+            System.err.println("Error reading delta file: " + e.getMessage());
+            e.printStackTrace();
         }
     }
+    
+    public void saveFinesToFile(FineService fines, String filename) {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(filename, StandardCharsets.UTF_8))) {
+            // First line records the last nightly pass so charges are never applied twice
+            writer.println("lastAccrual=" + (fines.getLastAccrual() != null ? fines.getLastAccrual() : ""));
+            writer.println("memberId,balance");
+            
+            for (Map.Entry<String, Long> entry : fines.getBalances().entrySet()) {
+                writer.println("\"" + entry.getKey().replace("\"", "\"\"") + "\"," + entry.getValue());
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving fines to file: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    public void loadFinesFromFile(FineService fines, String filename) {
+        if (!fileExists(filename)) {
+            return;
+        }
+        
+        try (BufferedReader reader = openReader(filename)) {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith("lastAccrual=")) {
+                System.err.println("Invalid or empty fines file: " + filename);
+                return;
+            }
+            String lastAccrual = line.substring("lastAccrual=".length()).trim();
+            if (!lastAccrual.isEmpty()) {
+                fines.setLastAccrual(java.time.LocalDate.parse(lastAccrual));
+            }
+            
+            // Skip header
+            reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                
+                try {
+                    int comma = line.lastIndexOf(',');
+                    String memberId = line.substring(0, comma).replaceAll("^\"|\"$", "").replace("\"\"", "\"");
+                    fines.setBalance(memberId, Long.parseLong(line.substring(comma + 1).trim()));
+                } catch (Exception e) {
+                    System.err.println("Error parsing line: " + line);
+                    e.printStackTrace();
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error reading fines file: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    // Splits one CSV line, handling quoted fields with commas and doubled quotes
+    static List<String> splitCsvLine(String line) {
+        List<String> parts = new ArrayList<>(5);
+        StringBuilder current = new StringBuilder();
+        boolean inQuotes = false;
+        
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (inQuotes && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else {
+                    inQuotes = !inQuotes;
+                }
+            } else if (c == ',' && !inQuotes) {
+                parts.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        parts.add(current.toString());
+        return parts;
+    }
+    
+    private interface RecordWriter {
+        long write(OutputStream out) throws IOException;
+    }
+    
+    // Writes a temp file, forces it to disk and renames it over the target, so a crash or error leaves
+    // either the old file or the new one, never a truncated one. Returns the number of records written.
+    private static long replaceFile(String filename, RecordWriter records) throws IOException {
+        Path target = Paths.get(filename);
+        Path temp = Paths.get(filename + ".tmp");
+        try {
+            long count;
+            try (OutputStream out = openOutput(temp, filename.endsWith(COMPRESSED_EXTENSION))) {
+                count = records.write(out);
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDirectory(target.toAbsolutePath().getParent());
+            return count;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+    
+    private static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Some platforms cannot open a directory; their renames are as durable as they get
+        }
+    }
+    
+    private static OutputStream openOutput(Path file, boolean compressed) throws IOException {
+        OutputStream out = new FileOutputStream(file.toFile());
+        return compressed ? new BlockCompressedOutputStream(out) : out;
+    }
+    
+    private static BufferedReader openReader(String filename) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(filename));
+        if (BlockCompressedInputStream.isBlockCompressed(in)) {
+            in = new BlockCompressedInputStream(in);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+    
+    // Writes the digits one by one instead of allocating a String per record through Integer.toString
+    private static void appendInt(Writer writer, int value) throws IOException {
+        long remaining = value;
+        if (remaining < 0) {
+            writer.append('-');
+            remaining = -remaining;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= remaining) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            writer.append((char) ('0' + remaining / divisor % 10));
+        }
+    }
+    
+    private static void appendJsonString(Writer writer, String value) throws IOException {
+        writer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> writer.append("\\\"");
+                case '\\' -> writer.append("\\\\");
+                case '\n' -> writer.append("\\n");
+                case '\r' -> writer.append("\\r");
+                case '\t' -> writer.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        writer.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.append(c);
+                    }
+                }
+            }
+        }
+        writer.append('"');
+    }
+    
+    private boolean fileExists(String filename) {
+        File file = new File(filename);
+        return file.exists() && file.length() > 0;
+    }
 }
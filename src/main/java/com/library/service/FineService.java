@@ -0,0 +1,120 @@
+package com.library.service;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+public class FineService {
+    private static final long DEFAULT_DAILY_FINE_CENTS = 25;
+
+    private final long dailyFineCents;
+    // Due date -> loans due that day; overdue loans are always a head of this map
+    private final TreeMap<LocalDate, Set<Loan>> dueDateIndex = new TreeMap<>();
+    private final Map<String, Long> balances = new HashMap<>(); // Member ID -> balance in cents
+    private LocalDate lastAccrual;
+
+    public FineService() {
+        this(DEFAULT_DAILY_FINE_CENTS);
+    }
+
+    public FineService(long dailyFineCents) {
+        if (dailyFineCents < 0) {
+            throw new IllegalArgumentException("Daily fine cannot be negative");
+        }
+        this.dailyFineCents = dailyFineCents;
+    }
+
+    public synchronized void loanStarted(String memberId, String isbn, LocalDate dueDate) {
+        dueDateIndex.computeIfAbsent(dueDate, d -> new HashSet<>()).add(new Loan(memberId, isbn));
+    }
+
+    // Charges the days overdue since the last accrual up to the return date, then drops the loan
+    public synchronized void loanEnded(String memberId, String isbn, LocalDate dueDate, LocalDate returnDate) {
+        Set<Loan> loans = dueDateIndex.get(dueDate);
+        if (loans == null || !loans.remove(new Loan(memberId, isbn))) {
+            return;
+        }
+        if (loans.isEmpty()) {
+            dueDateIndex.remove(dueDate);
+        }
+        long days = chargeableDays(dueDate, returnDate);
+        if (days > 0) {
+            balances.merge(memberId, days * dailyFineCents, Long::sum);
+        }
+    }
+
+    /**
+     * Nightly pass: walks only the loans due before {@code asOf} and charges each one for the
+     * days that have elapsed since the previous pass.
+     */
+    public synchronized AccrualResult accrueFines(LocalDate asOf) {
+        long start = System.nanoTime();
+        long loansProcessed = 0;
+        long totalCharged = 0;
+
+        if (lastAccrual == null || asOf.isAfter(lastAccrual)) {
+            for (Map.Entry<LocalDate, Set<Loan>> entry : dueDateIndex.headMap(asOf, false).entrySet()) {
+                long charge = chargeableDays(entry.getKey(), asOf) * dailyFineCents;
+                for (Loan loan : entry.getValue()) {
+                    balances.merge(loan.memberId(), charge, Long::sum);
+                    loansProcessed++;
+                    totalCharged += charge;
+                }
+            }
+            lastAccrual = asOf;
+        }
+        return new AccrualResult(asOf, loansProcessed, totalCharged, System.nanoTime() - start);
+    }
+
+    public synchronized long getBalance(String memberId) {
+        return balances.getOrDefault(memberId, 0L);
+    }
+
+    public synchronized Map<String, Long> getBalances() {
+        return new HashMap<>(balances);
+    }
+
+    public synchronized void setBalance(String memberId, long cents) {
+        if (cents <= 0) {
+            balances.remove(memberId);
+        } else {
+            balances.put(memberId, cents);
+        }
+    }
+
+    public synchronized void payFine(String memberId, long cents) {
+        if (cents <= 0) {
+            throw new IllegalArgumentException("Payment must be positive");
+        }
+        setBalance(memberId, getBalance(memberId) - cents);
+    }
+
+    public synchronized LocalDate getLastAccrual() {
+        return lastAccrual;
+    }
+
+    public synchronized void setLastAccrual(LocalDate lastAccrual) {
+        this.lastAccrual = lastAccrual;
+    }
+
+    public static String formatCents(long cents) {
+        return String.format("$%d.%02d", cents / 100, cents % 100);
+    }
+
+    // Overdue days in (max(dueDate, lastAccrual), until]
+    private long chargeableDays(LocalDate dueDate, LocalDate until) {
+        LocalDate from = lastAccrual != null && lastAccrual.isAfter(dueDate) ? lastAccrual : dueDate;
+        return Math.max(0, ChronoUnit.DAYS.between(from, until));
+    }
+
+    private record Loan(String memberId, String isbn) {
+    }
+
+    public record AccrualResult(LocalDate asOf, long loansProcessed, long totalChargedCents, long elapsedNanos) {
+        @Override
+        public String toString() {
+            return String.format("Fines accrued as of %s: %d overdue loans, %s charged in %.1f ms",
+                    asOf, loansProcessed, formatCents(totalChargedCents), elapsedNanos / 1_000_000.0);
+        }
+    }
+}
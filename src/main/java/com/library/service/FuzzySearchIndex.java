@@ -0,0 +1,307 @@
+package com.library.service;
+
+import com.library.model.Book;
+
+import java.util.*;
+
+/**
+ * Trigram index over book authors and titles for typo-tolerant search. Each normalized author,
+ * title and word of three or more letters is a term; trigrams point at terms, split by term length,
+ * and terms point at the books that contain them. A query reads only the postings of lengths within
+ * the edit-distance bound, collects terms sharing enough trigrams to possibly match, then verifies
+ * each candidate with a bounded Levenshtein check. A term remembers whether each book has it in the
+ * author or the title, so a search can be limited to authors. Each term keeps its books in title
+ * order, so a query reads at most {@code limit} books per matching term, and it stops at the closest
+ * distance that already yields {@code limit} books. Terms left without books are dropped, and the
+ * postings are rebuilt once dropped terms make up half of the term IDs.
+ */
+public class FuzzySearchIndex {
+    private static final int MIN_WORD_LENGTH = 3;
+    private static final int MIN_COMPACTION_TERMS = 1024;
+    // Result order among books at the same distance. Books are re-indexed around edits, so titles are
+    // stable while a book is in a term's set.
+    private static final Comparator<Book> BY_TITLE = Comparator.comparing(Book::getTitle,
+            Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(Book::getIsbn, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private final List<Term> terms = new ArrayList<>();
+    private final Map<Long, IntList> postings = new HashMap<>(); // Packed trigram and term length -> term IDs
+    // Per-term shared-trigram counters reused across queries, reset through the touched list
+    private int[] sharedCounts = new int[0];
+    private final IntList touched = new IntList();
+    private int droppedTerms; // IDs of dropped terms, still listed in the postings
+
+    public synchronized void add(Book book) {
+        for (String term : termsOf(book.getAuthor())) {
+            term(term).authors.add(book);
+        }
+        for (String term : termsOf(book.getTitle())) {
+            term(term).titles.add(book);
+        }
+    }
+
+    public synchronized void remove(Book book) {
+        for (String term : termsOf(book.getAuthor())) {
+            Integer id = termIds.get(term);
+            if (id != null) {
+                terms.get(id).authors.remove(book);
+                dropIfUnused(term, id);
+            }
+        }
+        for (String term : termsOf(book.getTitle())) {
+            Integer id = termIds.get(term);
+            if (id != null) {
+                terms.get(id).titles.remove(book);
+                dropIfUnused(term, id);
+            }
+        }
+        if (droppedTerms >= MIN_COMPACTION_TERMS && droppedTerms * 2 >= terms.size()) {
+            compact();
+        }
+    }
+
+    public synchronized List<Book> search(String query, int limit) {
+        return search(query, limit, false);
+    }
+
+    // Matches author names and author words only
+    public synchronized List<Book> searchAuthors(String query, int limit) {
+        return search(query, limit, true);
+    }
+
+    private Term term(String text) {
+        Integer id = termIds.get(text);
+        if (id != null) {
+            return terms.get(id);
+        }
+        Term term = new Term(text);
+        id = terms.size();
+        termIds.put(text, id);
+        terms.add(term);
+        for (long gram : trigrams(text)) {
+            postings.computeIfAbsent(postingKey(gram, text.length()), g -> new IntList()).add(id);
+        }
+        return term;
+    }
+
+    // The dropped term's ID stays in the postings until the next compaction; queries skip it
+    private void dropIfUnused(String text, int id) {
+        Term term = terms.get(id);
+        if (term.authors.isEmpty() && term.titles.isEmpty()) {
+            termIds.remove(text);
+            terms.set(id, null);
+            droppedTerms++;
+        }
+    }
+
+    // Renumbers the remaining terms and rebuilds the postings without the dropped ones
+    private void compact() {
+        List<Term> remaining = new ArrayList<>(terms.size() - droppedTerms);
+        termIds.clear();
+        postings.clear();
+        for (Term term : terms) {
+            if (term == null) continue;
+            int id = remaining.size();
+            remaining.add(term);
+            termIds.put(term.text, id);
+            for (long gram : trigrams(term.text)) {
+                postings.computeIfAbsent(postingKey(gram, term.text.length()), g -> new IntList()).add(id);
+            }
+        }
+        terms.clear();
+        terms.addAll(remaining);
+        droppedTerms = 0;
+        sharedCounts = new int[terms.size()];
+    }
+
+    private List<Book> search(String query, int limit, boolean authorsOnly) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int maxDistance = normalized.length() <= 4 ? 1 : 2;
+
+        // Candidate filtering: an edit changes at most 3 trigrams of the padded string
+        long[] grams = trigrams(normalized);
+        int minShared = Math.max(1, grams.length - 3 * maxDistance);
+        if (sharedCounts.length < terms.size()) {
+            sharedCounts = new int[Math.max(terms.size(), sharedCounts.length * 2)];
+        }
+        for (long gram : grams) {
+            // Only terms whose length is within the bound can match, and those are all that is read
+            int maxLength = normalized.length() + maxDistance;
+            for (int length = Math.max(1, normalized.length() - maxDistance); length <= maxLength; length++) {
+                IntList ids = postings.get(postingKey(gram, length));
+                if (ids == null) continue;
+                for (int i = 0; i < ids.size; i++) {
+                    if (sharedCounts[ids.values[i]]++ == 0) {
+                        touched.add(ids.values[i]);
+                    }
+                }
+            }
+        }
+
+        // Verification, grouping the matching terms by distance
+        List<List<Term>> byDistance = new ArrayList<>(maxDistance + 1);
+        for (int d = 0; d <= maxDistance; d++) {
+            byDistance.add(new ArrayList<>());
+        }
+        for (int i = 0; i < touched.size; i++) {
+            int id = touched.values[i];
+            int count = sharedCounts[id];
+            sharedCounts[id] = 0;
+            if (count < minShared) continue;
+            Term term = terms.get(id);
+            if (term == null || (authorsOnly && term.authors.isEmpty())) continue;
+            int distance = boundedLevenshtein(normalized, term.text, maxDistance);
+            if (distance <= maxDistance) {
+                byDistance.get(distance).add(term);
+            }
+        }
+        touched.size = 0;
+
+        // Closest distance first, by title within a distance; a book keeps its closest distance
+        List<Book> result = new ArrayList<>(Math.min(limit, 256));
+        Set<String> matched = new HashSet<>();
+        for (int d = 0; d <= maxDistance && result.size() < limit; d++) {
+            int room = limit - result.size();
+            PriorityQueue<Book> top = new PriorityQueue<>(BY_TITLE.reversed());
+            Set<String> offered = new HashSet<>();
+            for (Term term : byDistance.get(d)) {
+                keepFirst(term.authors, limit, room, matched, offered, top);
+                if (!authorsOnly) {
+                    keepFirst(term.titles, limit, room, matched, offered, top);
+                }
+            }
+            int from = result.size();
+            while (!top.isEmpty()) {
+                result.add(top.poll());
+            }
+            Collections.reverse(result.subList(from, result.size()));
+            for (int i = from; i < result.size(); i++) {
+                matched.add(result.get(i).getIsbn());
+            }
+        }
+        return result;
+    }
+
+    // Offers a term's books in title order to the room-sized heap. Any book past a term's first limit books
+    // has at least limit books ranked ahead of it, so the walk never goes further than that.
+    private static void keepFirst(NavigableSet<Book> books, int limit, int room, Set<String> matched,
+                                  Set<String> offered, PriorityQueue<Book> top) {
+        int walked = 0;
+        for (Book book : books) {
+            if (walked++ == limit || (top.size() == room && BY_TITLE.compare(book, top.peek()) >= 0)) {
+                return;
+            }
+            if (matched.contains(book.getIsbn()) || !offered.add(book.getIsbn())) continue;
+            top.add(book);
+            if (top.size() > room) {
+                top.poll();
+            }
+        }
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                if (space && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(c);
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Set<String> termsOf(String field) {
+        String normalized = normalize(field);
+        if (normalized.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> result = new HashSet<>();
+        result.add(normalized);
+        for (String word : normalized.split(" ")) {
+            if (word.length() >= MIN_WORD_LENGTH) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    // Postings are split by term length. Keys of different pairs may collide; that only adds candidates,
+    // which verification then rejects.
+    private static long postingKey(long gram, int length) {
+        return gram + length * 0xC2B2AE3D27D4EB4FL;
+    }
+
+    // Trigrams of the term padded with two leading and one trailing space. The three chars are packed
+    // into a long and multiplied by an odd constant (a bijection) so Long.hashCode spreads them well.
+    private static long[] trigrams(String term) {
+        String padded = "  " + term + " ";
+        long[] grams = new long[padded.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            long packed = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+            grams[i] = packed * 0x9E3779B97F4A7C15L;
+        }
+        return grams;
+    }
+
+    // Levenshtein distance, or maxDistance + 1 as soon as it is known to exceed the bound
+    static int boundedLevenshtein(String a, String b, int maxDistance) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > maxDistance) {
+                return maxDistance + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private static class Term {
+        final String text;
+        // Books by the field the term appears in, in title order
+        final NavigableSet<Book> authors = new TreeSet<>(BY_TITLE);
+        final NavigableSet<Book> titles = new TreeSet<>(BY_TITLE);
+
+        Term(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
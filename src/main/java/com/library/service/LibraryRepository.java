@@ -0,0 +1,33 @@
+package com.library.service;
+
+import com.library.model.Book;
+import com.library.model.Member;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Storage backend for books and members. {@link LibraryService} keeps the whole catalog and membership
+ * in memory, so a repository is read once at startup and written after that: it is handed the records
+ * changed since the last write as CSV lines from the {@link ChangeTracker}, either after every change
+ * (write-through backends) or at save time.
+ */
+public interface LibraryRepository extends Closeable {
+    List<Book> loadBooks() throws IOException;
+
+    List<Member> loadMembers() throws IOException;
+
+    // Persists changed records; a null line marks a removed record
+    void apply(ChangeTracker.ChangeSet changes) throws IOException;
+
+    // True when apply is cheap enough to call after every change
+    boolean isWriteThrough();
+
+    // True when the stored form has drifted far enough from the live state that a full rewrite pays off
+    boolean needsCompaction();
+
+    // Rewrites the store from the complete live state
+    void compact(Collection<Book> books, Collection<Member> members) throws IOException;
+}
@@ -3,75 +3,231 @@ package com.library.service;
 import com.library.exception.*;
 import com.library.model.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Catalog, membership and circulation, safe to call from any number of threads. Adds and removes are
+ * single atomic map updates, a book is claimed in the borrower map before it is lent, and each member's
+ * borrows and returns are serialized on that member, so the loan limit holds under concurrent borrows.
+ */
 public class LibraryService {
-    private Map<String, Book> books = new HashMap<>();
-    private Map<String, Member> members = new HashMap<>();
+    // Concurrent maps so that reports on other threads can scan while circulation goes on
+    private final Map<String, Book> books = new ConcurrentHashMap<>();
+    private final Map<String, Member> members = new ConcurrentHashMap<>();
+    // ISBN -> ID of the member holding it, so availability checks do not scan every member
+    private final Map<String, String> borrowers = new ConcurrentHashMap<>();
+    private final CirculationStatistics statistics = new CirculationStatistics();
+    private final FineService fines = new FineService();
+    // Cached results are shared between callers, so they are stored unmodifiable
+    private final QueryCache<List<Book>> queryCache = new QueryCache<>(1024);
+    private static final String AVAILABLE_KEY = "available";
+    private final FuzzySearchIndex fuzzyIndex = new FuzzySearchIndex();
+    private final MemberSearchIndex memberIndex = new MemberSearchIndex();
+    private final ChangeTracker changes = new ChangeTracker();
+    // Keeps the search index and cached queries in step with edits to catalog books, then records the change
+    private final ChangeListener catalogListener = new ChangeListener() {
+        @Override
+        public void bookChanging(Book book) {
+            fuzzyIndex.remove(book);
+            invalidateQueries(book);
+        }
+
+        @Override
+        public void bookChanged(Book book) {
+            fuzzyIndex.add(book);
+            invalidateQueries(book);
+            changes.bookChanged(book);
+            record(CirculationEvent.bookUpdated(book));
+        }
+
+        @Override
+        public void memberChanged(Member member) {
+            changes.memberChanged(member);
+        }
+    };
+    private volatile ReportService reports; // Created on first use; its pool threads are daemons
+    private volatile RecommendationService recommendations = new RecommendationService();
+    private volatile EventStore events;
+    private volatile LibraryRepository repository;
 
     // Book Management Methods
     public void addBook(Book book) throws DuplicateBookException {
-        if (books.containsKey(book.getIsbn())) throw new DuplicateBookException("ISBN already exists.");
-        books.put(book.getIsbn(), book);
+        if (books.putIfAbsent(book.getIsbn(), book) != null) throw new DuplicateBookException("ISBN already exists.");
+        fuzzyIndex.add(book);
+        invalidateQueries(book);
+        track(book);
+        record(CirculationEvent.bookAdded(book));
+        writeThrough();
+    }
+
+    // Adds every book whose ISBN is new and returns the ones that were skipped as duplicates
+    public List<Book> addBooks(Collection<Book> batch) {
+        List<Book> duplicates = new ArrayList<>();
+        EventStore events = this.events;
+        List<CirculationEvent> added = events != null ? new ArrayList<>(batch.size()) : null;
+        for (Book book : batch) {
+            if (books.putIfAbsent(book.getIsbn(), book) != null) {
+                duplicates.add(book);
+            } else {
+                fuzzyIndex.add(book);
+                invalidateQueries(book);
+                track(book);
+                if (added != null) added.add(CirculationEvent.bookAdded(book));
+            }
+        }
+        if (added != null) {
+            events.appendAll(added);
+        }
+        writeThrough();
+        return duplicates;
     }
 
     public void removeBook(String isbn) throws BookNotFoundException {
-        if (!books.containsKey(isbn)) throw new BookNotFoundException("Book not found.");
-        books.remove(isbn);
+        Book removed = isbn == null ? null : books.remove(isbn);
+        if (removed == null) throw new BookNotFoundException("Book not found.");
+        fuzzyIndex.remove(removed);
+        recommendations.removeBook(isbn);
+        invalidateQueries(removed);
+        removed.setChangeListener(null);
+        changes.bookRemoved(isbn);
+        record(CirculationEvent.bookRemoved(isbn));
+        writeThrough();
+    }
+
+    private void track(Book book) {
+        book.setChangeListener(catalogListener);
+        changes.bookChanged(book);
     }
 
     public List<Book> searchByAuthor(String author) {
-        return books.values().stream()
-                .filter(book -> book.getAuthor().equalsIgnoreCase(author))
-                .collect(Collectors.toList());
+        if (author == null) {
+            return Collections.emptyList();
+        }
+        return queryCache.get(authorKey(author), () -> books.values().stream()
+                .filter(book -> author.equalsIgnoreCase(book.getAuthor()))
+                .collect(Collectors.toUnmodifiableList()));
+    }
+
+    // Typo-tolerant search over authors and titles, best matches first
+    public List<Book> fuzzySearch(String query, int limit) {
+        return fuzzyIndex.search(query, limit);
+    }
+
+    public List<Book> fuzzySearchAuthors(String query, int limit) {
+        return fuzzyIndex.searchAuthors(query, limit);
     }
 
     public List<Book> searchByGenre(Genre genre) {
-        return books.values().stream()
+        return queryCache.get(genreKey(genre), () -> books.values().stream()
                 .filter(book -> book.getGenre() == genre)
-                .collect(Collectors.toList());
+                .collect(Collectors.toUnmodifiableList()));
+    }
+
+    public QueryCache<List<Book>> getQueryCache() {
+        return queryCache;
+    }
+
+    private void invalidateQueries(Book book) {
+        if (book.getAuthor() != null) {
+            queryCache.invalidate(authorKey(book.getAuthor()));
+        }
+        queryCache.invalidate(genreKey(book.getGenre()));
+        queryCache.invalidate(AVAILABLE_KEY);
+    }
+
+    // Folds each char the way String.equalsIgnoreCase compares them, so two authors share a cache key
+    // exactly when searchByAuthor treats them as the same author
+    private static String authorKey(String author) {
+        StringBuilder key = new StringBuilder("author:".length() + author.length()).append("author:");
+        for (int i = 0; i < author.length(); i++) {
+            key.append(Character.toLowerCase(Character.toUpperCase(author.charAt(i))));
+        }
+        return key.toString();
     }
 
+    private static String genreKey(Genre genre) {
+        return "genre:" + genre;
+    }
+
+    // Catalog-wide reports delegate to a fork-join ReportService over the live maps
     public Book getOldestBook() {
-        return books.values().stream()
-                .min(Comparator.comparingInt(Book::getPublicationYear))
-                .orElse(null);
+        return reports().getOldestBook();
     }
 
     public Book getNewestBook() {
-        return books.values().stream()
-                .max(Comparator.comparingInt(Book::getPublicationYear))
-                .orElse(null);
+        return reports().getNewestBook();
     }
 
     public Map<Genre, Long> countBooksByGenre() {
-        return books.values().stream()
-                .collect(Collectors.groupingBy(Book::getGenre, Collectors.counting()));
+        return reports().countBooksByGenre();
     }
 
     public List<Book> getAllBooksSortedByYear() {
-        return books.values().stream()
-                .sorted(Comparator.comparingInt(Book::getPublicationYear))
-                .collect(Collectors.toList());
+        return reports().getAllBooksSortedByYear();
+    }
+
+    private ReportService reports() {
+        ReportService current = reports;
+        if (current == null) {
+            synchronized (this) {
+                if (reports == null) {
+                    reports = new ReportService(this);
+                }
+                current = reports;
+            }
+        }
+        return current;
     }
 
     public List<Book> getAllBooks() {
         return new ArrayList<>(books.values());
     }
 
+    // Live, read-only view for streaming exports; books added or removed meanwhile may or may not be seen
+    public Stream<Book> streamBooks() {
+        return books.values().stream();
+    }
+
+    public int getBookCount() {
+        return books.size();
+    }
+
+    public Book getBook(String isbn) {
+        return isbn == null ? null : books.get(isbn);
+    }
+
     
     // Member Management Methods
     public void addMember(Member member) throws DuplicateMemberException {
-        if (members.containsKey(member.getMemberId())) {
+        if (members.putIfAbsent(member.getMemberId(), member) != null) {
             throw new DuplicateMemberException("Member ID already exists.");
         }
-        members.put(member.getMemberId(), member);
+        memberIndex.add(member);
+        member.setChangeListener(changes);
+        changes.memberChanged(member);
+        member.getBorrowedBooks().forEach((isbn, dueDate) -> {
+            borrowers.putIfAbsent(isbn, member.getMemberId());
+            fines.loanStarted(member.getMemberId(), isbn, dueDate);
+            Book book = books.get(isbn);
+            if (book != null) {
+                recommendations.recordBorrow(member.getMemberId(), book);
+            }
+        });
+        if (!member.getBorrowedBooks().isEmpty()) {
+            queryCache.invalidate(AVAILABLE_KEY);
+        }
+        record(CirculationEvent.memberAdded(member));
+        writeThrough();
     }
 
     public Member getMember(String memberId) throws MemberNotFoundException {
-        Member member = members.get(memberId);
+        Member member = memberId == null ? null : members.get(memberId);
         if (member == null) {
             throw new MemberNotFoundException("Member not found with ID: " + memberId);
         }
@@ -81,51 +237,237 @@ public class LibraryService {
     public void borrowBook(String memberId, String isbn) throws MemberNotFoundException, BookNotFoundException, 
             BookLimitExceededException, BookNotAvailableException {
         Member member = getMember(memberId);
-        Book book = books.get(isbn);
+        Book book = getBook(isbn);
         
         if (book == null) {
             throw new BookNotFoundException("Book not found with ISBN: " + isbn);
         }
         
-        if (!member.canBorrow()) {
-            throw new BookLimitExceededException("Member has reached the maximum number of borrowed books.");
-        }
-        
-        // Check if book is already borrowed by someone
-        boolean isBookBorrowed = members.values().stream()
-                .anyMatch(m -> m.getBorrowedBooks().containsKey(isbn));
-                
-        if (isBookBorrowed) {
-            throw new BookNotAvailableException("Book is already borrowed by another member.");
-        }
-        
-        if (!member.borrowBook(isbn)) {
-            throw new IllegalStateException("Failed to borrow book. Please try again.");
+        synchronized (member) {
+            if (!member.canBorrow()) {
+                throw new BookLimitExceededException("Member has reached the maximum number of borrowed books.");
+            }
+            
+            // Claiming the book in the borrower map also keeps two members from borrowing it at once
+            if (borrowers.putIfAbsent(isbn, memberId) != null) {
+                throw new BookNotAvailableException("Book is already borrowed by another member.");
+            }
+            
+            if (!member.borrowBook(isbn)) {
+                borrowers.remove(isbn, memberId);
+                throw new IllegalStateException("Failed to borrow book. Please try again.");
+            }
+            statistics.recordBorrow(memberId, book);
+            recommendations.recordBorrow(memberId, book);
+            LocalDate dueDate = member.getBorrowedBooks().get(isbn);
+            fines.loanStarted(memberId, isbn, dueDate);
+            queryCache.invalidate(AVAILABLE_KEY);
+            record(CirculationEvent.borrowed(memberId, isbn, dueDate));
         }
+        writeThrough();
     }
 
     public void returnBook(String memberId, String isbn) throws MemberNotFoundException, BookNotBorrowedException {
         Member member = getMember(memberId);
         
-        if (!member.getBorrowedBooks().containsKey(isbn)) {
-            throw new BookNotBorrowedException("This book is not borrowed by the member.");
-        }
-        
-        if (!member.returnBook(isbn)) {
-            throw new IllegalStateException("Failed to return book. Please try again.");
+        synchronized (member) {
+            LocalDate dueDate = isbn == null ? null : member.getBorrowedBooks().get(isbn);
+            if (dueDate == null) {
+                throw new BookNotBorrowedException("This book is not borrowed by the member.");
+            }
+            
+            if (!member.returnBook(isbn)) {
+                throw new IllegalStateException("Failed to return book. Please try again.");
+            }
+            fines.loanEnded(memberId, isbn, dueDate, LocalDate.now());
+            Book book = books.get(isbn);
+            if (book != null) {
+                statistics.recordReturn(memberId, book);
+            }
+            record(CirculationEvent.returned(memberId, isbn));
+            // Released last, so the next borrower's event is logged after this return
+            borrowers.remove(isbn, memberId);
+            queryCache.invalidate(AVAILABLE_KEY);
         }
+        writeThrough();
     }
     
+    public CirculationStatistics getStatistics() {
+        return statistics;
+    }
+
+    public ChangeTracker getChangeTracker() {
+        return changes;
+    }
+
+    public List<Book> recommendForBook(String isbn, int limit) {
+        return toBooks(recommendations.recommendForBook(isbn, limit), limit, Collections.emptySet());
+    }
+
+    // Leaves out books the member currently holds
+    public List<Book> recommendForMember(String memberId, int limit) throws MemberNotFoundException {
+        Set<String> held = getMember(memberId).getBorrowedBooks().keySet();
+        return toBooks(recommendations.recommendForMember(memberId, limit + held.size()), limit, held);
+    }
+
+    private List<Book> toBooks(List<String> isbns, int limit, Set<String> exclude) {
+        List<Book> result = new ArrayList<>(limit);
+        for (String isbn : isbns) {
+            Book book = books.get(isbn);
+            if (book != null && !exclude.contains(isbn) && result.size() < limit) {
+                result.add(book);
+            }
+        }
+        return result;
+    }
+
+    public RecommendationService getRecommendations() {
+        return recommendations;
+    }
+
+    /**
+     * Rebuilds the recommender from the one saved with the latest event log snapshot plus the borrows
+     * logged after it, or from every borrow when none was saved. Loading only sees the loans still open,
+     * so without this a restart forgets the co-borrowing history. Loans open at the time of the log's
+     * first snapshot have no borrow event and are added afterwards. Call it before circulation starts;
+     * borrows recorded meanwhile would be lost in the swap.
+     */
+    public void rebuildRecommendations() throws IOException {
+        EventStore events = this.events;
+        if (events == null) {
+            return;
+        }
+        EventStore.SavedRecommendations saved = events.readRecommendations();
+        RecommendationService rebuilt = saved != null ? saved.recommendations() : new RecommendationService();
+        events.forEachEvent(saved != null ? saved.sequence() : 0, event -> {
+            if (event.type() == CirculationEvent.Type.BOOK_REMOVED) {
+                rebuilt.removeBook(event.isbn());
+                return;
+            }
+            Book book = event.type() == CirculationEvent.Type.BORROWED ? books.get(event.isbn()) : null;
+            if (book != null) {
+                rebuilt.recordBorrow(event.memberId(), book);
+            }
+        });
+        for (Member member : members.values()) {
+            for (String isbn : member.getBorrowedBooks().keySet()) {
+                Book book = books.get(isbn);
+                if (book != null) {
+                    rebuilt.recordLoan(member.getMemberId(), book);
+                }
+            }
+        }
+        recommendations = rebuilt;
+    }
+
+    public FineService getFines() {
+        return fines;
+    }
+
+    // Every later add, edit, remove, borrow and return is appended to this log; null stops recording
+    public void setEventStore(EventStore events) {
+        this.events = events;
+    }
+
+    public EventStore getEventStore() {
+        return events;
+    }
+
+    private void record(CirculationEvent event) {
+        EventStore events = this.events;
+        if (events != null) {
+            events.append(event);
+        }
+    }
+
+    // Pending changes go to the repository at save points, or after every change when it writes through
+    public void setRepository(LibraryRepository repository) {
+        this.repository = repository;
+    }
+
+    public LibraryRepository getRepository() {
+        return repository;
+    }
+
+    private void writeThrough() {
+        LibraryRepository target = repository;
+        if (target != null && target.isWriteThrough()) {
+            flushChanges();
+        }
+    }
+
+    /**
+     * Writes the pending changes to the repository and returns how many records were written. Callers
+     * on different threads are serialized on the repository, so changes reach it in the order drained.
+     */
+    public int flushChanges() {
+        LibraryRepository target = repository;
+        if (target == null) {
+            return 0;
+        }
+        synchronized (target) {
+            ChangeTracker.ChangeSet pending = changes.drain();
+            if (pending.isEmpty()) {
+                return 0;
+            }
+            try {
+                target.apply(pending);
+            } catch (IOException e) {
+                changes.restore(pending);
+                throw new UncheckedIOException("Failed to write changes: " + e.getMessage(), e);
+            }
+            return pending.size();
+        }
+    }
+
+    // Rewrites the repository from the live state, which makes any pending changes redundant
+    public void compactRepository() throws IOException {
+        LibraryRepository target = repository;
+        if (target == null) {
+            return;
+        }
+        synchronized (target) {
+            ChangeTracker.ChangeSet pending = changes.drain();
+            try {
+                target.compact(books.values(), members.values());
+            } catch (IOException | RuntimeException e) {
+                changes.restore(pending);
+                throw e;
+            }
+        }
+    }
+
+    public void snapshotEvents() throws IOException {
+        EventStore events = this.events;
+        if (events != null) {
+            events.writeSnapshot(books.values(), members.values(), recommendations);
+        }
+    }
+
+    // Members whose ID or name starts with the prefix, case-insensitively
+    public List<Member> searchMembers(String prefix, int limit) {
+        return memberIndex.autocomplete(prefix, limit);
+    }
+
+    // One page of members in ID order; pass the last ID of the previous page, or null for the first page
+    public List<Member> getMembersPage(String afterMemberId, int limit) {
+        return memberIndex.page(afterMemberId, limit);
+    }
+
+    public Stream<Member> streamMembers() {
+        return members.values().stream();
+    }
+
+    public int getMemberCount() {
+        return members.size();
+    }
+
     public List<Member> getAllMembers() {
         return new ArrayList<>(members.values());
     }
     
     public List<Book> getAvailableBooks() {
-        Set<String> borrowedIsbns = members.values().stream()
-                .flatMap(m -> m.getBorrowedBooks().keySet().stream())
-                .collect(Collectors.toSet());
-                
-        return books.values().stream()
-                .filter(book -> !borrowedIsbns.contains(book.getIsbn()))
-                .collect(Collectors.toList());
+        return queryCache.get(AVAILABLE_KEY, () -> books.values().stream()
+                .filter(book -> !borrowers.containsKey(book.getIsbn()))
+                .collect(Collectors.toUnmodifiableList()));
     }}
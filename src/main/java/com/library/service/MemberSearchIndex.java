@@ -0,0 +1,97 @@
+package com.library.service;
+
+import com.library.model.Member;
+
+import java.util.*;
+
+/**
+ * Sorted index over member IDs and names for prefix autocomplete. IDs are lower-cased. Names are
+ * normalized like book search terms and indexed from each word on, so "lee" and "marie l" both find
+ * "Ann Marie Lee". A lookup seeks to the first key at or after the prefix and walks forward
+ * until the prefix stops matching, so it costs a tree descent plus the matches returned.
+ */
+public class MemberSearchIndex {
+    private final TreeMap<String, List<Member>> ids = new TreeMap<>();
+    private final TreeMap<String, List<Member>> names = new TreeMap<>();
+
+    public synchronized void add(Member member) {
+        if (member.getMemberId() == null) {
+            return;
+        }
+        ids.computeIfAbsent(idKey(member.getMemberId()), k -> new ArrayList<>(1)).add(member);
+        String name = FuzzySearchIndex.normalize(member.getName());
+        if (name.isEmpty()) {
+            return;
+        }
+        names.computeIfAbsent(name, k -> new ArrayList<>(1)).add(member);
+        for (int space = name.indexOf(' '); space >= 0; space = name.indexOf(' ', space + 1)) {
+            names.computeIfAbsent(name.substring(space + 1), k -> new ArrayList<>(1)).add(member);
+        }
+    }
+
+    // Members whose ID or name starts with the prefix: ID matches first, then name matches, each in key order
+    public synchronized List<Member> autocomplete(String prefix, int limit) {
+        if (prefix == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        String idPrefix = prefix.trim().toLowerCase(Locale.ROOT);
+        String namePrefix = FuzzySearchIndex.normalize(prefix);
+        if (idPrefix.isEmpty() && namePrefix.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<String, Member> matches = new LinkedHashMap<>();
+        if (!idPrefix.isEmpty()) {
+            collect(ids, idPrefix, limit, matches);
+        }
+        if (!namePrefix.isEmpty()) {
+            collect(names, namePrefix, limit, matches);
+        }
+        return new ArrayList<>(matches.values());
+    }
+
+    // Up to limit members in ID order, starting after the given ID (null for the first page)
+    public synchronized List<Member> page(String afterMemberId, int limit) {
+        List<Member> result = new ArrayList<>(Math.max(0, Math.min(limit, 256)));
+        if (limit <= 0) {
+            return result;
+        }
+        // Members whose IDs fold to the same key share an entry; skip those up to and including the cursor
+        boolean skipping = afterMemberId != null;
+        SortedMap<String, List<Member>> from = afterMemberId == null ? ids : ids.tailMap(idKey(afterMemberId));
+        for (List<Member> members : from.values()) {
+            for (Member member : members) {
+                if (skipping) {
+                    if (!idKey(member.getMemberId()).equals(idKey(afterMemberId))) {
+                        skipping = false;
+                    } else {
+                        if (member.getMemberId().equals(afterMemberId)) skipping = false;
+                        continue;
+                    }
+                }
+                result.add(member);
+                if (result.size() == limit) {
+                    return result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void collect(TreeMap<String, List<Member>> index, String prefix, int limit, Map<String, Member> matches) {
+        for (Map.Entry<String, List<Member>> entry : index.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                return;
+            }
+            for (Member member : entry.getValue()) {
+                matches.putIfAbsent(member.getMemberId(), member);
+                if (matches.size() == limit) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static String idKey(String memberId) {
+        return memberId.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,127 @@
+package com.library.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+// Bounded LRU cache for read-query results, invalidated explicitly by the keys a mutation touches. Loaders
+// run outside the lock, so an invalidation never waits for a scan; callers missing on a key that is already
+// loading wait for that load instead of starting their own.
+public class QueryCache<V> {
+    private final int maxEntries;
+    private final LinkedHashMap<String, V> entries;
+    private final Map<String, CompletableFuture<V>> loading = new HashMap<>();
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public QueryCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1");
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                if (size() > QueryCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public V get(String key, Supplier<V> loader) {
+        CompletableFuture<V> load;
+        boolean owner = false;
+        synchronized (this) {
+            V value = entries.get(key);
+            if (value != null) {
+                hits++;
+                return value;
+            }
+            misses++;
+            load = loading.get(key);
+            if (load == null) {
+                load = new CompletableFuture<>();
+                loading.put(key, load);
+                owner = true;
+            }
+        }
+        if (!owner) {
+            try {
+                return load.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        V value;
+        try {
+            value = loader.get();
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                loading.remove(key, load);
+            }
+            load.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            // Invalidated while loading: hand the result to the waiting callers but do not cache it
+            if (loading.remove(key, load)) {
+                entries.put(key, value);
+            }
+        }
+        load.complete(value);
+        return value;
+    }
+
+    public synchronized void invalidate(String key) {
+        if (entries.remove(key) != null) {
+            invalidations++;
+        }
+        loading.remove(key); // A load that started before the change must not publish its result
+    }
+
+    public synchronized void clear() {
+        invalidations += entries.size();
+        entries.clear();
+        loading.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0.0 : (double) hits / requests;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("QueryCache{size=%d/%d, hits=%d, misses=%d, hitRatio=%.2f, evictions=%d, invalidations=%d}",
+                entries.size(), maxEntries, hits, misses, getHitRatio(), evictions, invalidations);
+    }
+}
@@ -0,0 +1,208 @@
+package com.library.service;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Shares one LibraryService between clients by splitting operations into two classes.
+ *
+ * <p>Interactive operations (borrow, return, lookups) run on the caller's thread and never wait behind a
+ * report. LibraryService is thread-safe, so this lane only counts them rather than serializing them,
+ * and writers that bypass it (imports, loading) stay correct. Bulk operations (reports, exports) run
+ * on a small fork-join pool, which is also where the reports split their scans and sorts, so bulk work
+ * never has more threads than the lane's size. Their scans call a checkpoint every few thousand records. At a checkpoint the scan takes one token per record from a token bucket, which caps how fast
+ * bulk work may read the catalog. It then backs off while interactive operations are in flight, for a
+ * bounded time so that reports still finish under constant circulation. When the bulk lane already
+ * holds its threads' worth of running work plus a full queue, new bulk work is rejected rather than
+ * queued without limit.
+ */
+public class QueryScheduler {
+    public static final int DEFAULT_BULK_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    public static final int DEFAULT_BULK_QUEUE = 16;
+    public static final long DEFAULT_RECORDS_PER_SECOND = 10_000_000;
+    private static final int BULK_PARTITION_SIZE = 16_384; // Bounds the longest stretch a sort runs without a checkpoint
+    private static final int EXPORT_CHECKPOINT_INTERVAL = 4096;
+    private static final long MAX_BACKOFF_NANOS = 2_000_000; // Per checkpoint
+    private static final long BACKOFF_SLICE_NANOS = 50_000;
+
+    private final AtomicInteger interactiveInFlight = new AtomicInteger();
+    private final LibraryService library;
+    private final FileService files = new FileService();
+    private final ForkJoinPool bulk;
+    private final Semaphore bulkSlots; // Running plus queued bulk tasks
+    private final TokenBucket bulkRecords;
+    private final ReportService reports;
+    private final LongAdder interactiveCount = new LongAdder();
+    private final LongAdder bulkCompleted = new LongAdder();
+    private final LongAdder bulkRejected = new LongAdder();
+    private final LongAdder backoffs = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+
+    public QueryScheduler(LibraryService library) {
+        this(library, DEFAULT_BULK_THREADS, DEFAULT_BULK_QUEUE, DEFAULT_RECORDS_PER_SECOND);
+    }
+
+    public QueryScheduler(LibraryService library, int bulkThreads, int bulkQueueCapacity, long bulkRecordsPerSecond) {
+        if (bulkThreads < 1) {
+            throw new IllegalArgumentException("Bulk threads must be at least 1");
+        }
+        if (bulkQueueCapacity < 1) {
+            throw new IllegalArgumentException("Bulk queue capacity must be at least 1");
+        }
+        this.library = library;
+        // A quarter of a second of burst lets short reports run unthrottled
+        this.bulkRecords = new TokenBucket(bulkRecordsPerSecond, Math.max(1, bulkRecordsPerSecond / 4));
+        AtomicInteger threadNumber = new AtomicInteger();
+        // The maximum pool size and a saturate that always allows going on keep a join from adding a
+        // compensating thread, so the lane never runs more than bulkThreads threads
+        this.bulk = new ForkJoinPool(bulkThreads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("bulk-query-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false, 0, bulkThreads, 1, pool -> true, 60, TimeUnit.SECONDS);
+        this.bulkSlots = new Semaphore(bulkThreads + bulkQueueCapacity);
+        this.reports = new ReportService(library, bulk, BULK_PARTITION_SIZE, this::checkpoint);
+    }
+
+    // Runs a circulation operation or lookup on the calling thread
+    public <T> T interactive(Callable<T> operation) throws Exception {
+        interactiveInFlight.incrementAndGet();
+        try {
+            return operation.call();
+        } finally {
+            interactiveDone();
+        }
+    }
+
+    // The interactive lane for lookups and searches that throw no checked exceptions
+    public <T> T lookup(Supplier<T> lookup) {
+        interactiveInFlight.incrementAndGet();
+        try {
+            return lookup.get();
+        } finally {
+            interactiveDone();
+        }
+    }
+
+    private void interactiveDone() {
+        interactiveInFlight.decrementAndGet();
+        interactiveCount.increment();
+    }
+
+    // Queues a report or export; throws RejectedExecutionException when the bulk queue is full
+    public <T> CompletableFuture<T> bulk(Callable<T> query) {
+        if (!bulkSlots.tryAcquire()) {
+            bulkRejected.increment();
+            throw new RejectedExecutionException("Bulk queue is full");
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            bulk.execute(() -> {
+                try {
+                    result.complete(query.call());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    bulkSlots.release();
+                    bulkCompleted.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            bulkSlots.release();
+            bulkRejected.increment();
+            throw e;
+        }
+        return result;
+    }
+
+    // Reports that split their work over the bulk lane's own threads and checkpoint through this
+    // scheduler. Call them from bulk work, e.g. bulk(reports::countBooksByGenre).
+    public ReportService getReports() {
+        return reports;
+    }
+
+    // Streams the catalog to a file on the bulk lane; completes with the number of books written
+    public CompletableFuture<Long> exportBooks(String filename, ExportFormat format) {
+        return bulk(() -> {
+            try (OutputStream out = Files.newOutputStream(Paths.get(filename))) {
+                return files.exportBooks(throttle(library.streamBooks().iterator()), out, format);
+            }
+        });
+    }
+
+    public CompletableFuture<Long> exportMembers(String filename, ExportFormat format) {
+        return bulk(() -> {
+            try (OutputStream out = Files.newOutputStream(Paths.get(filename))) {
+                return files.exportMembers(throttle(library.streamMembers().iterator()), out, format);
+            }
+        });
+    }
+
+    // Wraps an export's source so that it checkpoints as it is consumed
+    public <T> Iterator<T> throttle(Iterator<T> records) {
+        return new Iterator<>() {
+            private int sinceCheckpoint;
+
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (++sinceCheckpoint == EXPORT_CHECKPOINT_INTERVAL) {
+                    checkpoint(sinceCheckpoint);
+                    sinceCheckpoint = 0;
+                }
+                return records.next();
+            }
+        };
+    }
+
+    // Called by bulk scans: pays for the records just read, then gives way to in-flight circulation
+    void checkpoint(int records) {
+        long throttled = bulkRecords.acquire(records);
+        if (throttled > 0) {
+            throttledNanos.add(throttled);
+        }
+        if (interactiveInFlight.get() > 0) {
+            backoffs.increment();
+            long deadline = System.nanoTime() + MAX_BACKOFF_NANOS;
+            while (interactiveInFlight.get() > 0 && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(BACKOFF_SLICE_NANOS);
+            }
+        }
+    }
+
+    public long getInteractiveCount() {
+        return interactiveCount.sum();
+    }
+
+    public long getBulkCompleted() {
+        return bulkCompleted.sum();
+    }
+
+    public long getBulkRejected() {
+        return bulkRejected.sum();
+    }
+
+    public long getBackoffCount() {
+        return backoffs.sum();
+    }
+
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum());
+    }
+
+    public void shutdown() {
+        bulk.shutdown();
+    }
+}
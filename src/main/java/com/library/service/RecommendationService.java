@@ -0,0 +1,448 @@
+package com.library.service;
+
+import com.library.model.Book;
+import com.library.model.Genre;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Item-to-item recommendations from co-borrowing. Each ISBN gets a dense int ID, and each item keeps a
+ * sparse row of co-borrow weights keyed by the other item's ID. A borrow adds one to the pair formed
+ * with every item in the member's recent history. Candidates are ranked by weight divided by the
+ * square root of the candidate's popularity, so bestsellers do not crowd out everything else. When
+ * co-borrowing gives too few candidates, the most borrowed books of the same genre fill the list.
+ *
+ * <p>Memory is bounded by a maximum number of stored pairs. Going over it prunes the lowest-weight
+ * pairs until the matrix is back under three quarters of the budget. Removing a book drops its pairs
+ * at once; member histories let go of it the next time the member borrows.
+ *
+ * <p>The whole state can be written out and read back, so a restart need not replay every borrow.
+ */
+public class RecommendationService {
+    public static final int DEFAULT_MAX_PAIRS = 2_000_000;
+    private static final int MAX_HISTORY = 64; // Recent distinct items per member that new borrows pair with
+    private static final int PRUNE_HISTOGRAM_SIZE = 1024;
+
+    private final int maxPairs;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> isbns = new ArrayList<>();
+    private final List<Genre> genres = new ArrayList<>();
+    private final List<IntIntMap> rows = new ArrayList<>();
+    private int[] borrowCounts = new int[16];
+    private final Map<String, IntList> histories = new HashMap<>();
+    private final Map<Genre, IntList> itemsByGenre = new EnumMap<>(Genre.class);
+    private long pairs;
+    private long prunedPairs;
+
+    public RecommendationService() {
+        this(DEFAULT_MAX_PAIRS);
+    }
+
+    public RecommendationService(int maxPairs) {
+        if (maxPairs < 1) {
+            throw new IllegalArgumentException("Pair budget must be at least 1");
+        }
+        this.maxPairs = maxPairs;
+    }
+
+    public synchronized void recordBorrow(String memberId, Book book) {
+        int item = idOf(book);
+        borrowCounts[item]++;
+        IntList history = histories.computeIfAbsent(memberId, k -> new IntList());
+        dropRemoved(history);
+        if (history.contains(item)) {
+            return; // A re-borrow says nothing new about what goes together
+        }
+        for (int i = 0; i < history.size; i++) {
+            int other = history.values[i];
+            pairs += rows.get(item).add(other, 1);
+            pairs += rows.get(other).add(item, 1);
+        }
+        if (history.size == MAX_HISTORY) {
+            history.removeFirst();
+        }
+        history.add(item);
+        if (pairs > maxPairs) {
+            prune();
+        }
+    }
+
+    // For loans that may already be in the member's history, such as loans still open after a replay of
+    // the borrow history: only a loan not found there counts as a borrow
+    public synchronized void recordLoan(String memberId, Book book) {
+        Integer item = ids.get(book.getIsbn());
+        IntList history = histories.get(memberId);
+        if (item == null || history == null || !history.contains(item)) {
+            recordBorrow(memberId, book);
+        }
+    }
+
+    // Forgets a book that has left the catalog. Its ID is not reused, so histories can drop it lazily.
+    public synchronized void removeBook(String isbn) {
+        Integer item = ids.remove(isbn);
+        if (item == null) {
+            return;
+        }
+        IntIntMap row = rows.get(item);
+        for (int slot = 0; slot < row.keys.length; slot++) {
+            int other = row.keys[slot] - 1;
+            if (other >= 0) {
+                pairs -= rows.get(other).remove(item);
+            }
+        }
+        pairs -= row.size;
+        rows.set(item, null);
+        isbns.set(item, null);
+        borrowCounts[item] = 0;
+        itemsByGenre.get(genres.get(item)).remove(item);
+    }
+
+    // ISBNs most often borrowed alongside this one, best first
+    public synchronized List<String> recommendForBook(String isbn, int limit) {
+        Integer item = ids.get(isbn);
+        if (item == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        Map<Integer, Double> scores = new HashMap<>();
+        addScores(scores, item);
+        Set<Integer> exclude = Collections.singleton(item);
+        return rank(scores, exclude, genres.get(item), limit);
+    }
+
+    // ISBNs co-borrowed with the member's recent history that the member has not borrowed, best first
+    public synchronized List<String> recommendForMember(String memberId, int limit) {
+        IntList history = histories.get(memberId);
+        if (history == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        Map<Integer, Double> scores = new HashMap<>();
+        Set<Integer> exclude = new HashSet<>();
+        int[] genreCounts = new int[Genre.values().length];
+        dropRemoved(history);
+        for (int i = 0; i < history.size; i++) {
+            addScores(scores, history.values[i]);
+            exclude.add(history.values[i]);
+            genreCounts[genres.get(history.values[i]).ordinal()]++;
+        }
+        Genre favourite = null;
+        for (Genre genre : Genre.values()) {
+            if (favourite == null || genreCounts[genre.ordinal()] > genreCounts[favourite.ordinal()]) {
+                favourite = genre;
+            }
+        }
+        return rank(scores, exclude, favourite, limit);
+    }
+
+    /**
+     * Writes the items, their co-borrow rows and popularity, and the member histories. Removed books are
+     * left out and the remaining items renumbered, so the saved matrix carries no gaps.
+     */
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        int[] savedIds = new int[isbns.size()];
+        int live = 0;
+        for (int item = 0; item < savedIds.length; item++) {
+            savedIds[item] = rows.get(item) != null ? live++ : -1;
+        }
+        out.writeInt(live);
+        for (int item = 0; item < savedIds.length; item++) {
+            if (savedIds[item] < 0) continue;
+            out.writeUTF(isbns.get(item));
+            out.writeUTF(genres.get(item).name());
+            out.writeInt(borrowCounts[item]);
+            IntIntMap row = rows.get(item);
+            out.writeInt(row.size);
+            for (int slot = 0; slot < row.keys.length; slot++) {
+                if (row.keys[slot] != 0) {
+                    out.writeInt(savedIds[row.keys[slot] - 1]);
+                    out.writeInt(row.values[slot]);
+                }
+            }
+        }
+        out.writeInt(histories.size());
+        for (Map.Entry<String, IntList> entry : histories.entrySet()) {
+            IntList history = entry.getValue();
+            dropRemoved(history);
+            out.writeUTF(entry.getKey());
+            out.writeInt(history.size);
+            for (int i = 0; i < history.size; i++) {
+                out.writeInt(savedIds[history.values[i]]);
+            }
+        }
+        out.writeLong(prunedPairs);
+    }
+
+    // Reads what writeTo wrote, with the default pair budget
+    public static RecommendationService readFrom(DataInput in) throws IOException {
+        RecommendationService service = new RecommendationService();
+        int items = in.readInt();
+        service.borrowCounts = new int[Math.max(16, items)];
+        for (int item = 0; item < items; item++) {
+            String isbn = in.readUTF();
+            Genre genre = Genre.valueOf(in.readUTF());
+            service.ids.put(isbn, item);
+            service.isbns.add(isbn);
+            service.genres.add(genre);
+            service.itemsByGenre.computeIfAbsent(genre, g -> new IntList()).add(item);
+            service.borrowCounts[item] = in.readInt();
+            IntIntMap row = new IntIntMap();
+            for (int i = in.readInt(); i > 0; i--) {
+                int other = in.readInt();
+                row.add(other, in.readInt());
+            }
+            service.rows.add(row);
+            service.pairs += row.size;
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            String memberId = in.readUTF();
+            IntList history = new IntList();
+            for (int j = in.readInt(); j > 0; j--) {
+                history.add(in.readInt());
+            }
+            service.histories.put(memberId, history);
+        }
+        service.prunedPairs = in.readLong();
+        return service;
+    }
+
+    public synchronized long getPairCount() {
+        return pairs;
+    }
+
+    public synchronized long getPrunedPairs() {
+        return prunedPairs;
+    }
+
+    public synchronized int getItemCount() {
+        return ids.size();
+    }
+
+    private void dropRemoved(IntList history) {
+        int kept = 0;
+        for (int i = 0; i < history.size; i++) {
+            if (rows.get(history.values[i]) != null) {
+                history.values[kept++] = history.values[i];
+            }
+        }
+        history.size = kept;
+    }
+
+    private void addScores(Map<Integer, Double> scores, int item) {
+        IntIntMap row = rows.get(item);
+        for (int slot = 0; slot < row.keys.length; slot++) {
+            int other = row.keys[slot] - 1;
+            if (other >= 0) {
+                scores.merge(other, row.values[slot] / Math.sqrt(borrowCounts[other]), Double::sum);
+            }
+        }
+    }
+
+    private List<String> rank(Map<Integer, Double> scores, Set<Integer> exclude, Genre genre, int limit) {
+        PriorityQueue<Map.Entry<Integer, Double>> top = new PriorityQueue<>(
+                Map.Entry.<Integer, Double>comparingByValue().thenComparing(e -> isbns.get(e.getKey()), Comparator.reverseOrder()));
+        for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+            if (exclude.contains(entry.getKey())) continue;
+            top.add(entry);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<String> result = new ArrayList<>(limit);
+        while (!top.isEmpty()) {
+            result.add(isbns.get(top.poll().getKey()));
+        }
+        Collections.reverse(result);
+
+        // Genre fallback: the genre's most borrowed items not already listed
+        if (result.size() < limit && genre != null) {
+            IntList candidates = itemsByGenre.get(genre);
+            Set<Integer> listed = new HashSet<>(exclude);
+            result.forEach(isbn -> listed.add(ids.get(isbn)));
+            PriorityQueue<Integer> popular = new PriorityQueue<>(
+                    Comparator.<Integer>comparingInt(i -> borrowCounts[i]).thenComparing(isbns::get, Comparator.reverseOrder()));
+            int wanted = limit - result.size();
+            for (int i = 0; candidates != null && i < candidates.size; i++) {
+                int candidate = candidates.values[i];
+                if (listed.contains(candidate)) continue;
+                popular.add(candidate);
+                if (popular.size() > wanted) {
+                    popular.poll();
+                }
+            }
+            List<String> fallback = new ArrayList<>(popular.size());
+            while (!popular.isEmpty()) {
+                fallback.add(isbns.get(popular.poll()));
+            }
+            Collections.reverse(fallback);
+            result.addAll(fallback);
+        }
+        return result;
+    }
+
+    private int idOf(Book book) {
+        Integer id = ids.get(book.getIsbn());
+        if (id != null) {
+            return id;
+        }
+        id = isbns.size();
+        ids.put(book.getIsbn(), id);
+        isbns.add(book.getIsbn());
+        genres.add(book.getGenre());
+        rows.add(new IntIntMap());
+        if (id == borrowCounts.length) {
+            borrowCounts = Arrays.copyOf(borrowCounts, id * 2);
+        }
+        itemsByGenre.computeIfAbsent(book.getGenre(), g -> new IntList()).add(id);
+        return id;
+    }
+
+    // Drops every pair at or below the smallest weight that brings the matrix under 3/4 of the budget
+    private void prune() {
+        long target = maxPairs * 3L / 4;
+        long[] pairsByWeight = new long[PRUNE_HISTOGRAM_SIZE]; // Heavier pairs share the last slot
+        for (IntIntMap row : rows) {
+            if (row == null) continue;
+            for (int slot = 0; slot < row.keys.length; slot++) {
+                if (row.keys[slot] != 0) {
+                    pairsByWeight[Math.min(row.values[slot], PRUNE_HISTOGRAM_SIZE - 1)]++;
+                }
+            }
+        }
+        long remaining = pairs;
+        int threshold = 0;
+        while (remaining > target && threshold < PRUNE_HISTOGRAM_SIZE - 2) {
+            remaining -= pairsByWeight[++threshold];
+        }
+        for (IntIntMap row : rows) {
+            if (row == null) continue;
+            int removed = row.removeAtOrBelow(threshold);
+            pairs -= removed;
+            prunedPairs += removed;
+        }
+    }
+
+    // Open-addressing int -> int map; keys are stored plus one so that zero marks an empty slot
+    private static class IntIntMap {
+        int[] keys = new int[4];
+        int[] values = new int[4];
+        int size;
+
+        // Returns 1 when the key is new, 0 otherwise
+        int add(int key, int delta) {
+            int slot = find(keys, key);
+            if (keys[slot] != 0) {
+                values[slot] += delta;
+                return 0;
+            }
+            keys[slot] = key + 1;
+            values[slot] = delta;
+            if (++size * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            return 1;
+        }
+
+        // Returns 1 when the key was present. The rest of the probe run is reinserted so that lookups
+        // do not stop at the emptied slot.
+        int remove(int key) {
+            int slot = find(keys, key);
+            if (keys[slot] == 0) {
+                return 0;
+            }
+            keys[slot] = 0;
+            size--;
+            int mask = keys.length - 1;
+            for (int next = (slot + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+                int movedKey = keys[next];
+                int movedValue = values[next];
+                keys[next] = 0;
+                int target = find(keys, movedKey - 1);
+                keys[target] = movedKey;
+                values[target] = movedValue;
+            }
+            return 1;
+        }
+
+        int removeAtOrBelow(int threshold) {
+            int before = size;
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            int kept = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] != 0 && oldValues[slot] > threshold) kept++;
+            }
+            int capacity = 4;
+            while (kept * 2 > capacity) capacity *= 2;
+            keys = new int[capacity];
+            values = new int[capacity];
+            size = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] != 0 && oldValues[slot] > threshold) {
+                    int target = find(keys, oldKeys[slot] - 1);
+                    keys[target] = oldKeys[slot];
+                    values[target] = oldValues[slot];
+                    size++;
+                }
+            }
+            return before - size;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[capacity];
+            values = new int[capacity];
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] != 0) {
+                    int target = find(keys, oldKeys[slot] - 1);
+                    keys[target] = oldKeys[slot];
+                    values[target] = oldValues[slot];
+                }
+            }
+        }
+
+        private static int find(int[] keys, int key) {
+            int mask = keys.length - 1;
+            int hash = key * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (keys[slot] != 0 && keys[slot] != key + 1) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    System.arraycopy(values, i + 1, values, i, --size - i);
+                    return;
+                }
+            }
+        }
+
+        void removeFirst() {
+            System.arraycopy(values, 1, values, 0, --size);
+        }
+
+        boolean contains(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) return true;
+            }
+            return false;
+        }
+    }
+}
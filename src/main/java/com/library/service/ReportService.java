@@ -0,0 +1,305 @@
+package com.library.service;
+
+import com.library.model.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+public class ReportService {
+    private static final int DEFAULT_PARTITION_SIZE = 50_000;
+    private static final int CHECKPOINT_INTERVAL = 4096; // Records scanned between checkpoint calls
+
+    private final LibraryService library;
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+    private final int partitionSize;
+    private final IntConsumer checkpoint;
+
+    public ReportService(LibraryService library) {
+        this(library, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ReportService(LibraryService library, int parallelism) {
+        this(library, parallelism, DEFAULT_PARTITION_SIZE);
+    }
+
+    public ReportService(LibraryService library, int parallelism, int partitionSize) {
+        this(library, parallelism, partitionSize, records -> { });
+    }
+
+    // The checkpoint is called from the pool threads with the number of records scanned since the last call;
+    // it may block to slow the report down
+    public ReportService(LibraryService library, int parallelism, int partitionSize, IntConsumer checkpoint) {
+        this(library, newPool(parallelism), true, partitionSize, checkpoint);
+    }
+
+    // Runs on a pool shared with other work, such as a scheduler's bulk lane; whoever made the pool shuts it down
+    public ReportService(LibraryService library, ForkJoinPool pool, int partitionSize, IntConsumer checkpoint) {
+        this(library, pool, false, partitionSize, checkpoint);
+    }
+
+    private ReportService(LibraryService library, ForkJoinPool pool, boolean ownsPool, int partitionSize,
+                          IntConsumer checkpoint) {
+        if (partitionSize < 1) {
+            throw new IllegalArgumentException("Partition size must be at least 1");
+        }
+        this.library = library;
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        this.partitionSize = partitionSize;
+        this.checkpoint = checkpoint;
+    }
+
+    private static ForkJoinPool newPool(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        return new ForkJoinPool(parallelism);
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public Map<Genre, Long> countBooksByGenre() {
+        long[] counts = aggregate(library.streamBooks().spliterator(),
+                () -> new long[Genre.values().length],
+                (acc, book) -> acc[book.getGenre().ordinal()]++,
+                ReportService::sum);
+        return toGenreMap(counts);
+    }
+
+    // Decade (e.g. 1990) -> Genre -> count
+    public Map<Integer, Map<Genre, Long>> countBooksByDecadeAndGenre() {
+        Map<Integer, long[]> counts = aggregate(library.streamBooks().spliterator(),
+                HashMap::new,
+                (acc, book) -> acc.computeIfAbsent(Math.floorDiv(book.getPublicationYear(), 10) * 10,
+                        d -> new long[Genre.values().length])[book.getGenre().ordinal()]++,
+                (left, right) -> {
+                    right.forEach((decade, c) -> left.merge(decade, c, ReportService::sum));
+                    return left;
+                });
+
+        Map<Integer, Map<Genre, Long>> result = new TreeMap<>();
+        counts.forEach((decade, c) -> result.put(decade, toGenreMap(c)));
+        return result;
+    }
+
+    public List<Map.Entry<String, Long>> getTopAuthors(int limit) {
+        Map<String, Long> counts = aggregate(library.streamBooks().spliterator(),
+                HashMap::new,
+                (acc, book) -> acc.merge(book.getAuthor(), 1L, Long::sum),
+                (left, right) -> {
+                    right.forEach((author, c) -> left.merge(author, c, Long::sum));
+                    return left;
+                });
+
+        return counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    public Map<Genre, Long> countLoansByGenre() {
+        long[] counts = aggregate(library.streamMembers().spliterator(),
+                () -> new long[Genre.values().length],
+                (acc, member) -> {
+                    for (String isbn : member.getBorrowedBooks().keySet()) {
+                        Book book = library.getBook(isbn);
+                        if (book != null) {
+                            acc[book.getGenre().ordinal()]++;
+                        }
+                    }
+                },
+                ReportService::sum);
+        return toGenreMap(counts);
+    }
+
+    // Members with at least one overdue loan, by member ID
+    public List<Member> getMembersWithOverdueBooks() {
+        List<Member> overdue = aggregate(library.streamMembers().spliterator(),
+                ArrayList::new,
+                (acc, member) -> {
+                    if (member.hasOverdueBooks()) acc.add(member);
+                },
+                (left, right) -> {
+                    left.addAll(right);
+                    return left;
+                });
+        overdue.sort(Comparator.comparing(Member::getMemberId));
+        return overdue;
+    }
+
+    public Book getOldestBook() {
+        return aggregate(library.streamBooks().spliterator(), () -> new Book[1],
+                (acc, book) -> {
+                    if (acc[0] == null || book.getPublicationYear() < acc[0].getPublicationYear()) acc[0] = book;
+                },
+                (left, right) -> right[0] != null && (left[0] == null
+                        || right[0].getPublicationYear() < left[0].getPublicationYear()) ? right : left)[0];
+    }
+
+    public Book getNewestBook() {
+        return aggregate(library.streamBooks().spliterator(), () -> new Book[1],
+                (acc, book) -> {
+                    if (acc[0] == null || book.getPublicationYear() > acc[0].getPublicationYear()) acc[0] = book;
+                },
+                (left, right) -> right[0] != null && (left[0] == null
+                        || right[0].getPublicationYear() > left[0].getPublicationYear()) ? right : left)[0];
+    }
+
+    public List<Book> getAllBooksSortedByYear() {
+        // Partitions collect their books in parallel; the chunks are then laid out in one array for the sort
+        List<List<Book>> chunks = aggregate(library.streamBooks().spliterator(),
+                () -> new ArrayList<>(List.of(new ArrayList<>())),
+                (acc, book) -> acc.get(0).add(book),
+                (left, right) -> {
+                    left.addAll(right);
+                    return left;
+                });
+        int size = 0;
+        for (List<Book> chunk : chunks) {
+            size += chunk.size();
+        }
+        Book[] sorted = new Book[size];
+        int offset = 0;
+        for (List<Book> chunk : chunks) {
+            for (Book book : chunk) {
+                sorted[offset++] = book;
+            }
+            checkpoint.accept(chunk.size());
+        }
+        pool.invoke(new SortTask(sorted, 0, sorted.length, partitionSize, checkpoint));
+        return Arrays.asList(sorted);
+    }
+
+    public void shutdown() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    // Splits the live map's spliterator down to partition size, folds each part into its own accumulator
+    // and merges the partials; nothing is copied up front
+    private <T, A> A aggregate(Spliterator<T> items, Supplier<A> supplier, BiConsumer<A, T> accumulator,
+                               BinaryOperator<A> combiner) {
+        return pool.invoke(new PartitionTask<>(items, partitionSize, supplier, accumulator, combiner, checkpoint));
+    }
+
+    private static long[] sum(long[] left, long[] right) {
+        for (int i = 0; i < left.length; i++) {
+            left[i] += right[i];
+        }
+        return left;
+    }
+
+    private static Map<Genre, Long> toGenreMap(long[] counts) {
+        Map<Genre, Long> result = new EnumMap<>(Genre.class);
+        for (Genre genre : Genre.values()) {
+            if (counts[genre.ordinal()] > 0) {
+                result.put(genre, counts[genre.ordinal()]);
+            }
+        }
+        return result;
+    }
+
+    private static class PartitionTask<T, A> extends RecursiveTask<A> {
+        private final Spliterator<T> items;
+        private final int partitionSize;
+        private final Supplier<A> supplier;
+        private final BiConsumer<A, T> accumulator;
+        private final BinaryOperator<A> combiner;
+        private final IntConsumer checkpoint;
+
+        PartitionTask(Spliterator<T> items, int partitionSize, Supplier<A> supplier,
+                      BiConsumer<A, T> accumulator, BinaryOperator<A> combiner, IntConsumer checkpoint) {
+            this.items = items;
+            this.partitionSize = partitionSize;
+            this.supplier = supplier;
+            this.accumulator = accumulator;
+            this.combiner = combiner;
+            this.checkpoint = checkpoint;
+        }
+
+        @Override
+        protected A compute() {
+            if (items.estimateSize() > partitionSize) {
+                Spliterator<T> prefix = items.trySplit();
+                if (prefix != null) {
+                    PartitionTask<T, A> left = new PartitionTask<>(prefix, partitionSize,
+                            supplier, accumulator, combiner, checkpoint);
+                    PartitionTask<T, A> right = new PartitionTask<>(items, partitionSize,
+                            supplier, accumulator, combiner, checkpoint);
+                    left.fork();
+                    A rightResult = right.compute();
+                    return combiner.apply(left.join(), rightResult);
+                }
+            }
+            A acc = supplier.get();
+            Consumer<T> fold = item -> accumulator.accept(acc, item);
+            int sinceCheckpoint = 0;
+            while (items.tryAdvance(fold)) {
+                if (++sinceCheckpoint == CHECKPOINT_INTERVAL) {
+                    checkpoint.accept(sinceCheckpoint);
+                    sinceCheckpoint = 0;
+                }
+            }
+            if (sinceCheckpoint > 0) {
+                checkpoint.accept(sinceCheckpoint);
+            }
+            return acc;
+        }
+    }
+
+    // Merge sort by publication year; partitions are sorted independently, then merged pairwise
+    private static class SortTask extends RecursiveTask<Void> {
+        private static final Comparator<Book> BY_YEAR = Comparator.comparingInt(Book::getPublicationYear);
+
+        private final Book[] books;
+        private final int from;
+        private final int to;
+        private final int partitionSize;
+        private final IntConsumer checkpoint;
+
+        SortTask(Book[] books, int from, int to, int partitionSize, IntConsumer checkpoint) {
+            this.books = books;
+            this.from = from;
+            this.to = to;
+            this.partitionSize = partitionSize;
+            this.checkpoint = checkpoint;
+        }
+
+        @Override
+        protected Void compute() {
+            if (to - from <= partitionSize) {
+                Arrays.sort(books, from, to, BY_YEAR);
+                checkpoint.accept(to - from);
+                return null;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SortTask(books, from, mid, partitionSize, checkpoint),
+                    new SortTask(books, mid, to, partitionSize, checkpoint));
+
+            Book[] left = Arrays.copyOfRange(books, from, mid);
+            int i = 0, j = mid, k = from;
+            while (i < left.length && j < to) {
+                books[k++] = BY_YEAR.compare(books[j], left[i]) < 0 ? books[j++] : left[i++];
+                if ((k - from) % CHECKPOINT_INTERVAL == 0) {
+                    checkpoint.accept(CHECKPOINT_INTERVAL);
+                }
+            }
+            while (i < left.length) {
+                books[k++] = left[i++];
+            }
+            return null;
+        }
+    }
+}
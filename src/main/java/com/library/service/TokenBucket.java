@@ -0,0 +1,43 @@
+package com.library.service;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Token bucket that lets callers run into debt: a large request is granted at once and the caller then
+// waits until the refill has paid it back, so the average rate holds without splitting requests
+class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(long tokensPerSecond, long capacity) {
+        if (tokensPerSecond < 1) {
+            throw new IllegalArgumentException("Rate must be at least 1 token per second");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1 token");
+        }
+        this.tokensPerNano = tokensPerSecond / 1e9;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    // Takes the tokens and returns how long the caller has to wait, in nanoseconds
+    synchronized long reserve(long count) {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        tokens -= count;
+        return tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+    }
+
+    // Returns the nanoseconds spent waiting
+    long acquire(long count) {
+        long wait = reserve(count);
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+        return wait;
+    }
+}
@@ -0,0 +1,362 @@
+package com.library.perf;
+
+import com.library.model.*;
+import com.library.service.*;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.stream.Stream;
+import java.util.*;
+
+/**
+ * Measures bytes allocated per call for each public LibraryService and FileService method and
+ * compares them against the checked-in budgets. Exits non-zero when an operation allocates more
+ * than its budget plus the margin, so the build fails on allocation regressions. Allocations are
+ * summed over every live thread, so work handed to the report fork-join pool or the block inflaters
+ * counts against the operation that started it; nothing else runs while a measurement is taken.
+ *
+ * Usage: AllocationBudgetCheck <budgets.properties> [margin] [--update]
+ */
+public class AllocationBudgetCheck {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final int CATALOG_SIZE = 20_000;
+    private static final int MEMBER_COUNT = 2_000;
+    private static final int WARMUP = 5_000;
+    private static final int ITERATIONS = 1_000;
+    private static final int FILE_WARMUP = 40;
+    private static final int FILE_ITERATIONS = 10;
+    // Each measurement keeps the lowest of several rounds. When the JIT compiles an operation, and whether
+    // it scalar-replaces the temporaries, differs from run to run; a round that catches it is discarded.
+    private static final int ROUNDS = 3;
+    // Differences below this are noise (e.g. a lazily grown buffer), whatever the margin
+    private static final long ABSOLUTE_SLACK = 256;
+
+    private final Map<String, Long> measured = new LinkedHashMap<>();
+
+    private interface Operation {
+        void run(int i) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: AllocationBudgetCheck <budgets.properties> [margin] [--update]");
+            System.exit(2);
+        }
+        if (!THREADS.isThreadAllocatedMemorySupported()) {
+            System.err.println("Thread allocation accounting is not supported by this JVM; skipping.");
+            return;
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        File budgetsFile = new File(args[0]);
+        double margin = args.length > 1 && !args[1].startsWith("--") ? Double.parseDouble(args[1]) : 0.25;
+        boolean update = Arrays.asList(args).contains("--update");
+
+        AllocationBudgetCheck check = new AllocationBudgetCheck();
+        check.measureLibraryService();
+        check.measureFileService();
+        check.measurePersistence();
+
+        if (update) {
+            check.writeBudgets(budgetsFile);
+            System.out.println("Wrote " + check.measured.size() + " allocation budgets to " + budgetsFile);
+        } else if (!check.compare(budgetsFile, margin)) {
+            System.exit(1);
+        }
+    }
+
+    private long measure(String name, int warmup, int iterations, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.run(i);
+        }
+        long perCall = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            int first = warmup + round * iterations;
+            long before = allocatedByAllThreads();
+            for (int i = 0; i < iterations; i++) {
+                operation.run(first + i);
+            }
+            perCall = Math.min(perCall, (allocatedByAllThreads() - before) / iterations);
+        }
+        measured.put(name, perCall);
+        return perCall;
+    }
+
+    // Pool threads outlive the measurements, so their totals only grow while a round runs
+    private static long allocatedByAllThreads() {
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private void measureLibraryService() throws Exception {
+        LibraryService library = newLibrary();
+        int calls = WARMUP + ROUNDS * ITERATIONS;
+
+        Book[] newBooks = books("new", calls);
+        measure("LibraryService.addBook", WARMUP, ITERATIONS, i -> library.addBook(newBooks[i]));
+        for (int i = 0; i < calls; i++) {
+            String isbn = newBooks[i].getIsbn();
+            newBooks[i] = null;
+            library.removeBook(isbn);
+        }
+
+        Book[] removable = books("removable", calls);
+        library.addBooks(Arrays.asList(removable));
+        measure("LibraryService.removeBook", WARMUP, ITERATIONS, i -> library.removeBook(removable[i].getIsbn()));
+
+        int batches = 50;
+        List<List<Book>> batchInput = new ArrayList<>();
+        for (int b = 0; b < batches * (1 + ROUNDS); b++) {
+            batchInput.add(Arrays.asList(books("batch" + b, 100)));
+        }
+        measure("LibraryService.addBooks(100)", batches, batches, i -> library.addBooks(batchInput.get(i)));
+        // Only the first round's batches stay, so the catalog the later measures scan does not depend on ROUNDS
+        for (List<Book> batch : batchInput.subList(batches * 2, batchInput.size())) {
+            for (Book book : batch) {
+                library.removeBook(book.getIsbn());
+            }
+        }
+
+        measure("LibraryService.searchByAuthor(cached)", WARMUP, ITERATIONS, i -> library.searchByAuthor("Author 7"));
+        measure("LibraryService.searchByAuthor(uncached)", 200, 50, i -> {
+            library.getQueryCache().clear();
+            library.searchByAuthor("Author 7");
+        });
+        measure("LibraryService.searchByGenre(cached)", WARMUP, ITERATIONS, i -> library.searchByGenre(Genre.HISTORY));
+        measure("LibraryService.searchByGenre(uncached)", 200, 50, i -> {
+            library.getQueryCache().clear();
+            library.searchByGenre(Genre.HISTORY);
+        });
+        measure("LibraryService.fuzzySearch", 500, 200, i -> library.fuzzySearch("Auhtor 17", 10));
+        measure("LibraryService.fuzzySearchAuthors", 500, 200, i -> library.fuzzySearchAuthors("Auhtor 17", 10));
+        measure("LibraryService.getAllBooksSortedByYear", 50, 20, i -> library.getAllBooksSortedByYear());
+        measure("LibraryService.countBooksByGenre", 200, 50, i -> library.countBooksByGenre());
+        measure("LibraryService.getOldestBook", 200, 50, i -> library.getOldestBook());
+        measure("LibraryService.getNewestBook", 200, 50, i -> library.getNewestBook());
+        measure("LibraryService.getAllBooks", 200, 50, i -> library.getAllBooks());
+        measure("LibraryService.streamBooks", WARMUP, ITERATIONS, i -> library.streamBooks().iterator());
+        measure("LibraryService.getBookCount", WARMUP, ITERATIONS, i -> library.getBookCount());
+        String[] isbns = new String[CATALOG_SIZE];
+        Arrays.setAll(isbns, i -> "isbn-" + i);
+        measure("LibraryService.getBook", WARMUP, ITERATIONS, i -> library.getBook(isbns[i % CATALOG_SIZE]));
+
+        Member[] newMembers = new Member[calls];
+        for (int i = 0; i < calls; i++) {
+            newMembers[i] = new Member("new-member-" + i, "New Member " + i);
+        }
+        measure("LibraryService.addMember", WARMUP, ITERATIONS, i -> library.addMember(newMembers[i]));
+        String[] memberIds = new String[MEMBER_COUNT];
+        Arrays.setAll(memberIds, i -> "member-" + i);
+        measure("LibraryService.getMember", WARMUP, ITERATIONS, i -> library.getMember(memberIds[i % MEMBER_COUNT]));
+        measure("LibraryService.borrowBook+returnBook", 500, 200, i -> {
+            library.borrowBook("member-0", "isbn-0");
+            library.returnBook("member-0", "isbn-0");
+        });
+        // Overlapping loan histories so the recommendation queries have co-borrowed pairs to rank
+        for (int m = 1; m <= 50; m++) {
+            for (int b = 0; b < 4; b++) {
+                String isbn = "isbn-" + (10_000 + m + b);
+                library.borrowBook("member-" + m, isbn);
+                library.returnBook("member-" + m, isbn);
+            }
+        }
+        measure("LibraryService.recommendForBook", WARMUP, ITERATIONS, i -> library.recommendForBook("isbn-10010", 10));
+        measure("LibraryService.recommendForMember", WARMUP, ITERATIONS, i -> library.recommendForMember("member-10", 10));
+        measure("LibraryService.getAvailableBooks(cached)", WARMUP, ITERATIONS, i -> library.getAvailableBooks());
+        measure("LibraryService.getAvailableBooks(uncached)", 200, 50, i -> {
+            library.getQueryCache().clear();
+            library.getAvailableBooks();
+        });
+        measure("LibraryService.getAllMembers", 200, 50, i -> library.getAllMembers());
+        measure("LibraryService.streamMembers", WARMUP, ITERATIONS, i -> library.streamMembers().iterator());
+        measure("LibraryService.getMemberCount", WARMUP, ITERATIONS, i -> library.getMemberCount());
+        measure("LibraryService.searchMembers", WARMUP, ITERATIONS, i -> library.searchMembers("member-12", 10));
+        measure("LibraryService.getMembersPage", WARMUP, ITERATIONS, i -> library.getMembersPage("member-100", 20));
+    }
+
+    private void measureFileService() throws Exception {
+        LibraryService library = newLibrary();
+        FileService files = new FileService();
+        File dir = new File("data");
+        String booksFile = new File(dir, "perf-books.csv").getPath();
+        String compressedFile = new File(dir, "perf-books" + FileService.COMPRESSED_EXTENSION).getPath();
+        String membersFile = new File(dir, "perf-members.csv").getPath();
+        String deltaFile = new File(dir, "perf.delta").getPath();
+        String finesFile = new File(dir, "perf-fines.csv").getPath();
+        List<Book> books = library.getAllBooks();
+        List<Member> members = library.getAllMembers();
+        OutputStream sink = OutputStream.nullOutputStream();
+        WritableByteChannel channel = Channels.newChannel(sink);
+
+        for (ExportFormat format : ExportFormat.values()) {
+            measure("FileService.exportBooks(" + format + ")", FILE_WARMUP, FILE_ITERATIONS,
+                    i -> files.exportBooks(books.iterator(), sink, format));
+            measure("FileService.exportMembers(" + format + ")", FILE_WARMUP, FILE_ITERATIONS,
+                    i -> files.exportMembers(members.iterator(), sink, format));
+            measure("FileService.exportBooksToChannel(" + format + ")", FILE_WARMUP, FILE_ITERATIONS,
+                    i -> files.exportBooks(books.iterator(), channel, format));
+            measure("FileService.exportMembersToChannel(" + format + ")", FILE_WARMUP, FILE_ITERATIONS,
+                    i -> files.exportMembers(members.iterator(), channel, format));
+        }
+        measure("FileService.saveBooksToFile", FILE_WARMUP, FILE_ITERATIONS, i -> files.saveBooksToFile(books, booksFile));
+        measure("FileService.saveBooksToFile(compressed)", FILE_WARMUP, FILE_ITERATIONS,
+                i -> files.saveBooksToFile(books, compressedFile));
+        measure("FileService.loadBooksFromFile", FILE_WARMUP, FILE_ITERATIONS, i -> files.loadBooksFromFile(booksFile));
+        measure("FileService.loadBooksFromFile(compressed)", FILE_WARMUP, FILE_ITERATIONS,
+                i -> files.loadBooksFromFile(compressedFile));
+        measure("FileService.saveMembersToFile", FILE_WARMUP, FILE_ITERATIONS,
+                i -> files.saveMembersToFile(members, membersFile));
+        measure("FileService.loadMembersFromFile", FILE_WARMUP, FILE_ITERATIONS,
+                i -> files.loadMembersFromFile(membersFile));
+
+        ChangeTracker changes = library.getChangeTracker();
+        measure("FileService.appendDelta(10)", 50, 20, i -> {
+            for (int j = 0; j < 10; j++) {
+                changes.bookChanged(books.get((i * 10 + j) % books.size()));
+            }
+            files.appendDelta(changes.drain(), deltaFile);
+        });
+        measure("FileService.loadBooksFromFile(delta)", FILE_WARMUP, FILE_ITERATIONS,
+                i -> files.loadBooksFromFile(booksFile, deltaFile));
+        files.clearDelta(deltaFile);
+
+        FineService fines = library.getFines();
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            fines.setBalance("member-" + i, 25L * (i + 1));
+        }
+        measure("FileService.saveFinesToFile", FILE_WARMUP, FILE_ITERATIONS, i -> files.saveFinesToFile(fines, finesFile));
+        measure("FileService.loadFinesFromFile", FILE_WARMUP, FILE_ITERATIONS,
+                i -> files.loadFinesFromFile(new FineService(), finesFile));
+    }
+
+    // Saves through a CSV repository and an event log in the working directory
+    private void measurePersistence() throws Exception {
+        LibraryService library = newLibrary();
+        FileService files = new FileService();
+        File dir = new File("data");
+        String booksFile = new File(dir, "perf-repository-books.csv").getPath();
+        String membersFile = new File(dir, "perf-repository-members.csv").getPath();
+        String deltaFile = new File(dir, "perf-repository.delta").getPath();
+        Path eventsDir = new File(dir, "perf-events").toPath();
+        library.setRepository(new CsvLibraryRepository(files, booksFile, membersFile, deltaFile));
+        List<Book> books = library.getAllBooks();
+        List<Member> members = library.getAllMembers();
+        ChangeTracker changes = library.getChangeTracker();
+
+        measure("LibraryService.compactRepository", FILE_WARMUP, FILE_ITERATIONS, i -> library.compactRepository());
+        measure("LibraryService.flushChanges(10)", 50, 20, i -> {
+            for (int j = 0; j < 5; j++) {
+                changes.bookChanged(books.get((i * 5 + j) % books.size()));
+                changes.memberChanged(members.get((i * 5 + j) % members.size()));
+            }
+            library.flushChanges();
+        });
+        measure("FileService.loadMembersFromFile(delta)", FILE_WARMUP, FILE_ITERATIONS,
+                i -> files.loadMembersFromFile(membersFile, deltaFile));
+        files.clearDelta(deltaFile);
+
+        deleteDirectory(eventsDir);
+        try (EventStore events = new EventStore(eventsDir.toString())) {
+            library.setEventStore(events);
+            measure("LibraryService.snapshotEvents", FILE_WARMUP, FILE_ITERATIONS, i -> library.snapshotEvents());
+            // A loan history for the rebuild to replay
+            for (int m = 1; m <= 200; m++) {
+                for (int b = 0; b < 5; b++) {
+                    String isbn = "isbn-" + (10_000 + m + b);
+                    library.borrowBook("member-" + m, isbn);
+                    library.returnBook("member-" + m, isbn);
+                }
+            }
+            measure("LibraryService.rebuildRecommendations", FILE_WARMUP, FILE_ITERATIONS,
+                    i -> library.rebuildRecommendations());
+            library.setEventStore(null);
+        }
+        deleteDirectory(eventsDir);
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static LibraryService newLibrary() throws Exception {
+        LibraryService library = new LibraryService();
+        library.addBooks(Arrays.asList(books("isbn", CATALOG_SIZE)));
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            Member member = new Member("member-" + i, "Member " + i);
+            library.addMember(member);
+            if (i > 0 && i % 4 == 0) {
+                library.borrowBook(member.getMemberId(), "isbn-" + i);
+            }
+        }
+        library.getChangeTracker().drain();
+        return library;
+    }
+
+    private static Book[] books(String prefix, int count) {
+        Genre[] genres = Genre.values();
+        Book[] books = new Book[count];
+        for (int i = 0; i < count; i++) {
+            books[i] = new Book("Title " + prefix + " " + i, "Author " + (i % 500), prefix + "-" + i,
+                    1900 + i % 125, genres[i % genres.length]);
+        }
+        return books;
+    }
+
+    private boolean compare(File budgetsFile, double margin) throws IOException {
+        Properties budgets = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(budgetsFile), StandardCharsets.UTF_8)) {
+            budgets.load(reader);
+        }
+
+        boolean ok = true;
+        System.out.printf("%-48s %14s %14s%n", "Operation", "Bytes/call", "Budget");
+        for (Map.Entry<String, Long> entry : measured.entrySet()) {
+            String budgetValue = budgets.getProperty(entry.getKey());
+            long actual = entry.getValue();
+            String status;
+            if (budgetValue == null) {
+                status = "NO BUDGET";
+                ok = false;
+            } else {
+                long budget = Long.parseLong(budgetValue.trim());
+                boolean within = actual <= budget * (1 + margin) || actual - budget <= ABSOLUTE_SLACK;
+                status = within ? "ok" : String.format("OVER by %.0f%%", (actual - budget) * 100.0 / Math.max(1, budget));
+                ok &= within;
+            }
+            System.out.printf("%-48s %,14d %14s  %s%n", entry.getKey(), actual,
+                    budgetValue == null ? "-" : String.format("%,d", Long.parseLong(budgetValue.trim())), status);
+        }
+        if (!ok) {
+            System.err.printf("Allocation budgets exceeded (margin %.0f%%). If the increase is intended, "
+                    + "rerun with -PupdateAllocationBudgets and commit %s%n", margin * 100, budgetsFile);
+        }
+        return ok;
+    }
+
+    private void writeBudgets(File budgetsFile) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(budgetsFile), StandardCharsets.UTF_8))) {
+            writer.println("# Bytes allocated per call, measured by AllocationBudgetCheck. Regenerate with:");
+            writer.println("#   gradle allocationCheck -PupdateAllocationBudgets");
+            for (Map.Entry<String, Long> entry : measured.entrySet()) {
+                writer.println(entry.getKey() + "=" + entry.getValue());
+            }
+        }
+    }
+}
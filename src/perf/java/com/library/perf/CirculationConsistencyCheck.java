@@ -0,0 +1,186 @@
+package com.library.perf;
+
+import com.library.exception.BookLimitExceededException;
+import com.library.exception.BookNotAvailableException;
+import com.library.exception.BookNotBorrowedException;
+import com.library.model.*;
+import com.library.service.*;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks LibraryService's borrower index under concurrent circulation. Each scenario races many
+ * threads through borrowBook and returnBook, then compares the index, as seen through
+ * getAvailableBooks, with the loans the members actually hold. Exits non-zero on the first
+ * inconsistency, so the build fails.
+ *
+ * Usage: CirculationConsistencyCheck [rounds]
+ */
+public class CirculationConsistencyCheck {
+    private static final int THREADS = 8;
+    private static final int BOOKS = 200;
+    private static final int MEMBERS = 64;
+    // Member.MAX_BOOKS
+    private static final int LOAN_LIMIT = 5;
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        CirculationConsistencyCheck check = new CirculationConsistencyCheck();
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < rounds && check.failures.isEmpty(); round++) {
+                check.oneBorrowerPerBook(threads);
+                check.loanLimitPerMember(threads);
+                check.mixedCirculation(threads, round);
+            }
+            check.loadedLoansBlockBorrowing();
+        } finally {
+            threads.shutdownNow();
+        }
+        if (!check.failures.isEmpty()) {
+            check.failures.forEach(System.err::println);
+            System.exit(1);
+        }
+        System.out.println("Circulation consistency: " + rounds + " rounds ok");
+    }
+
+    // Every member tries to borrow the same book at once; exactly one may get it
+    private void oneBorrowerPerBook(ExecutorService threads) throws Exception {
+        LibraryService library = newLibrary();
+        AtomicInteger borrowed = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        race(threads, MEMBERS, m -> {
+            try {
+                library.borrowBook("member-" + m, "isbn-0");
+                borrowed.incrementAndGet();
+            } catch (BookNotAvailableException e) {
+                refused.incrementAndGet();
+            }
+        });
+        expect(borrowed.get() == 1 && refused.get() == MEMBERS - 1,
+                "oneBorrowerPerBook: " + borrowed + " borrowed, " + refused + " refused");
+        verifyIndex(library, "oneBorrowerPerBook");
+    }
+
+    // One member borrows many different books at once; the loan limit must hold
+    private void loanLimitPerMember(ExecutorService threads) throws Exception {
+        LibraryService library = newLibrary();
+        AtomicInteger borrowed = new AtomicInteger();
+        race(threads, BOOKS, b -> {
+            try {
+                library.borrowBook("member-0", "isbn-" + b);
+                borrowed.incrementAndGet();
+            } catch (BookLimitExceededException e) {
+                // Expected once the member holds the maximum
+            }
+        });
+        int held = library.getMember("member-0").getBorrowedBooks().size();
+        expect(borrowed.get() == held && held == LOAN_LIMIT,
+                "loanLimitPerMember: " + borrowed + " borrowed, " + held + " held, limit " + LOAN_LIMIT);
+        verifyIndex(library, "loanLimitPerMember");
+    }
+
+    // Random borrows and returns over a small catalog, so members keep competing for the same books
+    private void mixedCirculation(ExecutorService threads, int seed) throws Exception {
+        LibraryService library = newLibrary();
+        race(threads, THREADS, t -> {
+            Random random = new Random(seed * 31L + t);
+            for (int i = 0; i < 2_000; i++) {
+                String memberId = "member-" + random.nextInt(MEMBERS);
+                String isbn = "isbn-" + random.nextInt(20);
+                try {
+                    if (random.nextBoolean()) {
+                        library.borrowBook(memberId, isbn);
+                    } else {
+                        library.returnBook(memberId, isbn);
+                    }
+                } catch (BookNotAvailableException | BookLimitExceededException | BookNotBorrowedException e) {
+                    // Taken, not held, or over the limit: all expected under contention
+                }
+            }
+        });
+        verifyIndex(library, "mixedCirculation");
+    }
+
+    // Loans that come in with a loaded member are indexed, so nobody else can borrow those books
+    private void loadedLoansBlockBorrowing() throws Exception {
+        LibraryService library = newLibrary();
+        Member loaded = new Member("loaded", "Loaded Member");
+        loaded.borrowBook("isbn-7", LocalDate.now().plusDays(14));
+        library.addMember(loaded);
+        try {
+            library.borrowBook("member-1", "isbn-7");
+            failures.add("loadedLoansBlockBorrowing: a book on loan from a loaded member was lent again");
+        } catch (BookNotAvailableException expected) {
+            // The loaded loan holds the book
+        }
+        library.returnBook("loaded", "isbn-7");
+        library.borrowBook("member-1", "isbn-7");
+        verifyIndex(library, "loadedLoansBlockBorrowing");
+    }
+
+    // The available books must be exactly the catalog minus the books some member holds, each held once
+    private void verifyIndex(LibraryService library, String scenario) {
+        library.getQueryCache().clear();
+        Set<String> held = new HashSet<>();
+        library.streamMembers().forEach(member -> {
+            for (String isbn : member.getBorrowedBooks().keySet()) {
+                expect(held.add(isbn), scenario + ": " + isbn + " is held by two members");
+            }
+        });
+        Set<String> available = new HashSet<>();
+        library.getAvailableBooks().forEach(book -> available.add(book.getIsbn()));
+        library.streamBooks().forEach(book -> {
+            boolean isHeld = held.contains(book.getIsbn());
+            expect(isHeld != available.contains(book.getIsbn()),
+                    scenario + ": " + book.getIsbn() + (isHeld ? " is held but listed as available" : " is neither held nor available"));
+        });
+    }
+
+    private interface Task {
+        void run(int index) throws Exception;
+    }
+
+    // Starts all tasks together behind a latch and rethrows the first unexpected failure
+    private static void race(ExecutorService threads, int tasks, Task task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>(tasks);
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            futures.add(threads.submit(() -> {
+                start.await();
+                task.run(index);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private void expect(boolean condition, String failure) {
+        if (!condition && failures.size() < 20) {
+            failures.add(failure);
+        }
+    }
+
+    private static LibraryService newLibrary() throws Exception {
+        LibraryService library = new LibraryService();
+        Genre[] genres = Genre.values();
+        List<Book> books = new ArrayList<>(BOOKS);
+        for (int i = 0; i < BOOKS; i++) {
+            books.add(new Book("Title " + i, "Author " + (i % 20), "isbn-" + i, 1900 + i % 125, genres[i % genres.length]));
+        }
+        library.addBooks(books);
+        for (int i = 0; i < MEMBERS; i++) {
+            library.addMember(new Member("member-" + i, "Member " + i));
+        }
+        return library;
+    }
+}
@@ -0,0 +1,55 @@
+package com.library.perf;
+
+import com.library.service.FineService;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Times the nightly fine accrual over a large number of active loans. Due dates are spread over the
+ * two months before and after the start date, so each pass charges about half of the loans. After the
+ * first pass, a month of nightly passes runs, with a slice of loans returned each day.
+ *
+ * Usage: FineAccrualBenchmark [active loans]
+ */
+public class FineAccrualBenchmark {
+    private static final int DUE_DATE_SPREAD_DAYS = 60;
+    private static final int NIGHTS = 30;
+
+    public static void main(String[] args) {
+        int loans = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        LocalDate today = LocalDate.of(2024, 1, 1);
+        FineService fines = new FineService();
+        Random random = new Random(42);
+        LocalDate[] dueDates = new LocalDate[loans];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < loans; i++) {
+            dueDates[i] = today.plusDays(random.nextInt(2 * DUE_DATE_SPREAD_DAYS) - DUE_DATE_SPREAD_DAYS);
+            fines.loanStarted("member-" + (i / 5), "isbn-" + i, dueDates[i]);
+        }
+        System.out.printf("Indexed %,d active loans in %,.0f ms%n", loans, (System.nanoTime() - start) / 1e6);
+
+        // The first pass charges every overdue loan for all the days since it fell due
+        System.out.println(fines.accrueFines(today));
+
+        long totalNanos = 0;
+        long slowestNanos = 0;
+        long returned = 0;
+        for (int night = 1; night <= NIGHTS; night++) {
+            LocalDate date = today.plusDays(night);
+            for (int i = night; i < loans; i += NIGHTS * 10) {
+                if (dueDates[i] != null) {
+                    fines.loanEnded("member-" + (i / 5), "isbn-" + i, dueDates[i], date);
+                    dueDates[i] = null;
+                    returned++;
+                }
+            }
+            FineService.AccrualResult result = fines.accrueFines(date);
+            totalNanos += result.elapsedNanos();
+            slowestNanos = Math.max(slowestNanos, result.elapsedNanos());
+        }
+        System.out.printf("%d nightly passes (%,d loans returned meanwhile): mean %,.1f ms, slowest %,.1f ms%n",
+                NIGHTS, returned, totalNanos / 1e6 / NIGHTS, slowestNanos / 1e6);
+    }
+}
@@ -0,0 +1,200 @@
+package com.library.perf;
+
+import com.library.model.*;
+import com.library.service.*;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures borrow/return/lookup latency while reports run against the same LibraryService. Three
+ * phases share one library: circulation alone, circulation with reports calling ReportService directly
+ * on every core, and circulation with the same reports sent through QueryScheduler's bulk lane.
+ *
+ * Usage: MixedLoadBenchmark [books] [members] [seconds per phase] [bulk records per second]
+ */
+public class MixedLoadBenchmark {
+    private static final int INTERACTIVE_CLIENTS = 4;
+    private static final int BULK_CLIENTS = 2;
+    private static final long THINK_NANOS = 1_000_000; // Pause between a client's operations
+    private static final int MAX_SAMPLES = 1 << 20; // Per client and phase
+
+    private final LibraryService library = new LibraryService();
+    private final int memberCount;
+    private final QueryScheduler scheduler;
+    private final ReportService unscheduledReports;
+
+    private interface Reports {
+        Object run(ReportService reports, int round);
+    }
+
+    private static final Reports REPORT_MIX = (reports, round) -> switch (round % 3) {
+        case 0 -> reports.getAllBooksSortedByYear();
+        case 1 -> reports.getMembersWithOverdueBooks();
+        default -> reports.countBooksByDecadeAndGenre();
+    };
+
+    MixedLoadBenchmark(int bookCount, int memberCount, long bulkRecordsPerSecond) throws Exception {
+        this.memberCount = memberCount;
+        Genre[] genres = Genre.values();
+        List<Book> books = new ArrayList<>(bookCount);
+        for (int i = 0; i < bookCount; i++) {
+            books.add(new Book("Title " + i, "Author " + (i % 50_000), "isbn-" + i, 1900 + i % 125, genres[i % genres.length]));
+        }
+        library.addBooks(books);
+        LocalDate overdue = LocalDate.now().minusDays(3);
+        for (int i = 0; i < memberCount; i++) {
+            Member member = new Member("member-" + i, "Member " + i);
+            if (i % 10 == 0) {
+                member.borrowBook("isbn-" + (bookCount - 1 - i), overdue);
+            }
+            library.addMember(member);
+        }
+        this.scheduler = new QueryScheduler(library, QueryScheduler.DEFAULT_BULK_THREADS,
+                QueryScheduler.DEFAULT_BULK_QUEUE, bulkRecordsPerSecond);
+        this.unscheduledReports = new ReportService(library);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int members = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        long rate = args.length > 3 ? Long.parseLong(args[3]) : QueryScheduler.DEFAULT_RECORDS_PER_SECOND;
+
+        System.out.printf("%,d books, %,d members, %d interactive and %d report clients, %d s per phase, "
+                        + "bulk limit %,d records/s, %d cores%n", books, members, INTERACTIVE_CLIENTS, BULK_CLIENTS,
+                seconds, rate, Runtime.getRuntime().availableProcessors());
+        MixedLoadBenchmark benchmark = new MixedLoadBenchmark(books, members, rate);
+        benchmark.runPhase("warmup", Math.max(1, seconds / 2), true, false);
+
+        System.out.println();
+        System.out.println(String.format("%-12s %10s %9s %9s %9s %9s %9s %12s", "Phase", "Ops", "p50 us", "p90 us",
+                "p99 us", "p99.9 us", "Max us", "Reports"));
+        benchmark.print(benchmark.runPhase("idle", seconds, false, false));
+        benchmark.print(benchmark.runPhase("unscheduled", seconds, true, false));
+        benchmark.print(benchmark.runPhase("scheduled", seconds, true, true));
+        System.out.printf("%nScheduler: %,d backoffs, %,d ms throttled, %,d rejected%n",
+                benchmark.scheduler.getBackoffCount(), benchmark.scheduler.getThrottledMillis(),
+                benchmark.scheduler.getBulkRejected());
+        benchmark.scheduler.shutdown();
+        benchmark.unscheduledReports.shutdown();
+    }
+
+    private Result runPhase(String name, int seconds, boolean withReports, boolean scheduled) throws Exception {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> threads = new ArrayList<>();
+        long[][] samples = new long[INTERACTIVE_CLIENTS][MAX_SAMPLES];
+        int[] sampleCounts = new int[INTERACTIVE_CLIENTS];
+        long[] reportNanos = new long[BULK_CLIENTS];
+        int[] reportCounts = new int[BULK_CLIENTS];
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+
+        for (int c = 0; c < INTERACTIVE_CLIENTS; c++) {
+            int client = c;
+            threads.add(new Thread(() -> {
+                try {
+                    sampleCounts[client] = circulate(client, end, samples[client]);
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }, "client-" + c));
+        }
+        for (int c = 0; withReports && c < BULK_CLIENTS; c++) {
+            int client = c;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int round = client; System.nanoTime() < end; round += BULK_CLIENTS) {
+                        long start = System.nanoTime();
+                        int report = round;
+                        if (scheduled) {
+                            scheduler.bulk(() -> REPORT_MIX.run(scheduler.getReports(), report)).get();
+                        } else {
+                            REPORT_MIX.run(unscheduledReports, report);
+                        }
+                        reportNanos[client] += System.nanoTime() - start;
+                        reportCounts[client]++;
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }, "reports-" + c));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("Phase " + name + " failed", failures.get(0));
+        }
+
+        int total = Arrays.stream(sampleCounts).sum();
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (int c = 0; c < INTERACTIVE_CLIENTS; c++) {
+            System.arraycopy(samples[c], 0, latencies, offset, sampleCounts[c]);
+            offset += sampleCounts[c];
+        }
+        Arrays.sort(latencies);
+        return new Result(name, latencies, Arrays.stream(reportCounts).sum(), Arrays.stream(reportNanos).sum());
+    }
+
+    // Each client owns every INTERACTIVE_CLIENTS-th member and borrows from its own slice of the catalog,
+    // so clients never compete for the same book
+    private int circulate(int client, long end, long[] samples) throws Exception {
+        Random random = new Random(client);
+        int count = 0;
+        while (System.nanoTime() < end && count < samples.length - 2) {
+            String memberId = "member-" + (random.nextInt(memberCount / INTERACTIVE_CLIENTS) * INTERACTIVE_CLIENTS + client);
+            String isbn = "isbn-" + (random.nextInt(memberCount / INTERACTIVE_CLIENTS) * INTERACTIVE_CLIENTS + client);
+            samples[count++] = timed(() -> library.getBook(isbn));
+            samples[count++] = timed(() -> {
+                library.borrowBook(memberId, isbn);
+                return null;
+            });
+            LockSupport.parkNanos(THINK_NANOS);
+            samples[count++] = timed(() -> {
+                library.returnBook(memberId, isbn);
+                return null;
+            });
+            LockSupport.parkNanos(THINK_NANOS);
+        }
+        return count;
+    }
+
+    private long timed(Callable<Object> operation) throws Exception {
+        long start = System.nanoTime();
+        scheduler.interactive(operation);
+        return System.nanoTime() - start;
+    }
+
+    private void print(Result result) {
+        long[] l = result.latencies;
+        System.out.println(String.format("%-12s %,10d %,9.1f %,9.1f %,9.1f %,9.1f %,9.1f %,12d", result.name, l.length,
+                percentile(l, 0.50), percentile(l, 0.90), percentile(l, 0.99), percentile(l, 0.999),
+                l.length == 0 ? 0 : l[l.length - 1] / 1e3, result.reports)
+                + (result.reports > 0 ? String.format("  (mean %,.0f ms)", result.reportNanos / 1e6 / result.reports) : ""));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e3;
+    }
+
+    private static class Result {
+        final String name;
+        final long[] latencies;
+        final int reports;
+        final long reportNanos;
+
+        Result(String name, long[] latencies, int reports, long reportNanos) {
+            this.name = name;
+            this.latencies = latencies;
+            this.reports = reports;
+            this.reportNanos = reportNanos;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.library.perf;
+
+import com.library.model.Book;
+import com.library.model.Genre;
+import com.library.service.FileService;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares plain and block-compressed book snapshots: file size, save time and load time. Each format
+ * is saved and loaded a few times and the fastest run is reported, so the first run's warmup does not
+ * count against either format.
+ *
+ * Usage: SnapshotCompressionBenchmark [books] [runs]
+ */
+public class SnapshotCompressionBenchmark {
+    private static final String[] WORDS = {"river", "shadow", "garden", "empire", "silent", "winter", "glass",
+            "north", "letters", "orchard", "harbor", "iron", "summer", "crown", "paper", "storm"};
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        FileService files = new FileService();
+        Genre[] genres = Genre.values();
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String title = WORDS[i % WORDS.length] + " " + WORDS[(i / 7) % WORDS.length] + " " + i;
+            books.add(new Book(title, "Author " + (i % 20_000), String.format("978%010d", i), 1900 + i % 125,
+                    genres[i % genres.length]));
+        }
+
+        System.out.println(String.format("%-12s %14s %12s %12s", "Format", "Bytes", "Save ms", "Load ms"));
+        long plainBytes = run(files, books, "data/perf-snapshot.csv", runs);
+        long compressedBytes = run(files, books, "data/perf-snapshot" + FileService.COMPRESSED_EXTENSION, runs);
+        System.out.printf("Compressed snapshot is %.1f%% of the plain size%n", 100.0 * compressedBytes / plainBytes);
+    }
+
+    private static long run(FileService files, List<Book> books, String filename, int runs) throws IOException {
+        File file = new File(filename);
+        long bestSave = Long.MAX_VALUE;
+        long bestLoad = Long.MAX_VALUE;
+        for (int run = 0; run < runs; run++) {
+            file.delete();
+            long start = System.nanoTime();
+            files.saveBooksToFile(books.iterator(), filename);
+            bestSave = Math.min(bestSave, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            int loaded = files.loadBooksFromFile(filename).size();
+            bestLoad = Math.min(bestLoad, System.nanoTime() - start);
+            if (loaded != books.size()) {
+                throw new IllegalStateException("Loaded " + loaded + " of " + books.size() + " books from " + filename);
+            }
+        }
+        long bytes = file.length();
+        System.out.println(String.format("%-12s %,14d %,12.0f %,12.0f", filename.substring(filename.lastIndexOf('.') + 1),
+                bytes, bestSave / 1e6, bestLoad / 1e6));
+        file.delete();
+        return bytes;
+    }
+}